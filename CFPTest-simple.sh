@@ -50,3 +50,12 @@ for method in SDM; do
 		fi
 	done
 done
+
+N=20
+for method in RWR RWRBipartite RWRPush RWRMC RWRBasis RWRSeries; do 
+	filename="result/CFPTest-${method}-n${N}.log"
+	if [ ! -f $filename ]; then 
+		echo "File $filename not exists"; 
+		java -jar target/CF4CFP-1.0.jar -t $method -n $N train1 test1 train2 test2 train3 test3 train4 test4 train5 test5 > $filename 2> $filename.error
+	fi
+done
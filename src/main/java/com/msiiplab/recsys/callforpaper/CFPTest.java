@@ -14,11 +14,21 @@ import com.msiiplab.recsys.implicit.NeighborhoodRecommender;
 import com.msiiplab.recsys.lfm.AspectModelRecommender;
 import com.msiiplab.recsys.lfm.SeriesDeadlinePopularityRecommender;
 import com.msiiplab.recsys.lfm.SeriesDeadlineRecommender;
+import com.msiiplab.recsys.rwr.BipartitePageRankModel;
+import com.msiiplab.recsys.rwr.ComputePool;
+import com.msiiplab.recsys.rwr.CooccurrenceSparsifier;
+import com.msiiplab.recsys.rwr.ForwardPushPageRankModel;
+import com.msiiplab.recsys.rwr.ItemBasisPageRankModel;
+import com.msiiplab.recsys.rwr.MonteCarloPageRankModel;
 import com.msiiplab.recsys.rwr.NFoldTest;
 import com.msiiplab.recsys.rwr.PersonalizedPageRankRecommender;
+import com.msiiplab.recsys.rwr.RandomWalkParameters;
+import com.msiiplab.recsys.rwr.SeriesPageRankModel;
+import com.msiiplab.recsys.rwr.WeightStorage;
 
 
 import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.impl.Arguments;
 import net.sourceforge.argparse4j.inf.ArgumentParser;
 import net.sourceforge.argparse4j.inf.ArgumentParserException;
 import net.sourceforge.argparse4j.inf.Namespace;
@@ -33,6 +43,9 @@ public class CFPTest {
 	private static List<String> sFiles;
 	private static String sMetaData;
 	private static boolean sFlagOutput = false;
+	private static RandomWalkParameters sWalkParameters;
+	private static SeriesPageRankModel.Share sSeriesShare;
+	private static boolean sFusedTraining;
 
 	/**
 	 * @param args
@@ -45,16 +58,54 @@ public class CFPTest {
 				.defaultHelp(true)
 				.description("Test all recommender method on CFP data.");
 		parser.addArgument("-t", "--type").required(true)
-				.choices("UserCF", "Name", "Popularity", "RWR", "LFM", 
+				.choices("UserCF", "Name", "Popularity", "RWR", "RWRBipartite", "RWRPush", "RWRMC", "RWRBasis", "RWRSeries", "LFM", 
 						"UserCFIDF", "UserCFIDF2", "UserCFIDF3", "UserCFLFM", 
 						"SDM", "SDPM", "SDRPM", "SM")
 				.help("Type of recommender to use");
 		parser.addArgument("-f", "--factor").type(Integer.class)
 				.help("Number of latent factors, only applicable when type is LFM (Latent Factor Model)");
+		parser.addArgument("--fusedEM").action(Arguments.storeTrue())
+				.help("Train the latent factor model without storing the posterior of each preference, only applicable when type is LFM");
 		parser.addArgument("-b", "--neighbor").type(Integer.class)
 				.help("Number of nearest neighbors, only applicable when type is UserCF");
 		parser.addArgument("-m", "--metadata").type(String.class)
 				.help("tsv file that contains cfp meta data including cfpID seriesID timestamp cfpName");
+		parser.addArgument("-a", "--alpha").type(Double.class)
+				.help("Probability of continuing the walk instead of restarting, only applicable when type is RWR");
+		parser.addArgument("--alphas").type(Double.class).nargs("+")
+				.help("Alphas evaluated together from one walk per user instead of --alpha, each reported on its own, only applicable when type is RWR");
+		parser.addArgument("--maxSteps").type(Integer.class)
+				.help("Number of walking steps, or the upper bound of it when tolerance is set, only applicable when type is RWR");
+		parser.addArgument("--tolerance").type(Double.class)
+				.help("Stop walking once the L1 residual between two steps drops below this, only applicable when type is RWR");
+		parser.addArgument("--epsilon").type(Double.class)
+				.help("Residual per out-going edge below which an item is not pushed, only applicable when type is RWRPush");
+		parser.addArgument("--walks").type(Integer.class)
+				.help("Number of random walks simulated per user, only applicable when type is RWRMC");
+		parser.addArgument("--basisSize").type(Integer.class)
+				.help("Number of entries kept in the precomputed rank of each item, only applicable when type is RWRBasis");
+		parser.addArgument("--topK").type(Integer.class)
+				.help("Number of best scores cached per user, at least N, 0 caches all scores, only applicable when type is RWR*");
+		parser.addArgument("--cacheSize").type(Integer.class)
+				.help("Number of users whose scores are cached, least recently used are evicted, only applicable when type is RWR*");
+		parser.addArgument("--cacheMemory").type(Integer.class)
+				.help("Megabytes of cached scores, least recently used are evicted, only applicable when type is RWR*");
+		parser.addArgument("--snapshotDir").type(String.class)
+				.help("Directory where the transition matrix of each training file is saved and reloaded, only applicable when type is RWR*");
+		parser.addArgument("--weightStorage").choices("double", "float", "short")
+				.help("Precision of the transition matrix weights, float and short trade accuracy for memory, only applicable when type is RWR");
+		parser.addArgument("--neighbors").type(Integer.class)
+				.help("Number of co-occurring items kept per item, 0 keeps all, only applicable when type is RWR*");
+		parser.addArgument("--neighborRanking").choices("count", "cosine")
+				.help("Whether the kept co-occurring items have the largest counts, which is also the largest normalized weights, or cosine similarities, only applicable when type is RWR*");
+		parser.addArgument("--minCount").type(Integer.class)
+				.help("Number of users below which a co-occurrence is dropped, only applicable when type is RWR*");
+		parser.addArgument("--seriesShare").choices("popularity", "deadline").setDefault("popularity")
+				.help("How the rank of a series is split among its calls, only applicable when type is RWRSeries");
+		parser.addArgument("--threads").type(Integer.class)
+				.help("Number of threads shared by model fitting and evaluation, defaults to one less than the processors");
+		parser.addArgument("--seed").type(Long.class)
+				.help("Seed of the latent factor initialization, runs with the same seed fit the same models, only applicable to the latent factor models");
 		parser.addArgument("-n", "--numEvaluated").required(true).type(Integer.class)
 				.help("N as in NDCG@N");
 		parser.addArgument("file").nargs("*")
@@ -70,6 +121,7 @@ public class CFPTest {
 			} else {
 				sFactor = ns.getInt("factor");
 			}
+			sFusedTraining = ns.getBoolean("fusedEM");
 			if (ns.getInt("neighbor") == null) {
 				sNeighbor = 10;
 			} else {
@@ -80,11 +132,75 @@ public class CFPTest {
 			} else {
 				sMetaData = "item.txt";
 			}
+			sWalkParameters = new RandomWalkParameters();
+			if (ns.getDouble("alpha") != null) {
+				sWalkParameters.setAlpha(ns.getDouble("alpha"));
+			}
+			if (ns.getInt("maxSteps") != null) {
+				sWalkParameters.setMaxSteps(ns.getInt("maxSteps"));
+			}
+			if (ns.getDouble("tolerance") != null) {
+				sWalkParameters.setTolerance(ns.getDouble("tolerance"));
+			}
+			if (ns.getDouble("epsilon") != null) {
+				sWalkParameters.setEpsilon(ns.getDouble("epsilon"));
+			}
+			if (ns.getInt("walks") != null) {
+				sWalkParameters.setNumWalks(ns.getInt("walks"));
+			}
+			if (ns.getInt("basisSize") != null) {
+				sWalkParameters.setBasisSize(ns.getInt("basisSize"));
+			}
+			if (ns.getInt("topK") != null) {
+				sWalkParameters.setTopK(ns.getInt("topK"));
+			}
+			if (ns.getInt("cacheSize") != null) {
+				sWalkParameters.setCacheSize(ns.getInt("cacheSize"));
+			}
+			if (ns.getInt("cacheMemory") != null) {
+				sWalkParameters.setCacheMemory((long) ns.getInt("cacheMemory") << 20);
+			}
+			if (ns.getString("snapshotDir") != null) {
+				sWalkParameters.setSnapshotDir(ns.getString("snapshotDir"));
+			}
+			if (ns.getString("weightStorage") != null) {
+				sWalkParameters.setWeightStorage(WeightStorage.valueOf(ns.getString("weightStorage").toUpperCase()));
+			}
+			if (sWalkParameters.getWeightStorage() != WeightStorage.DOUBLE && (sRecommenderType.equals("RWRPush") 
+					|| sRecommenderType.equals("RWRBasis") || sRecommenderType.equals("RWRMC"))) {
+				throw new ArgumentParserException("--weightStorage must be double when type is " + sRecommenderType, parser);
+			}
+			if (ns.getInt("neighbors") != null) {
+				sWalkParameters.setMaxNeighbors(ns.getInt("neighbors"));
+			}
+			if (ns.getString("neighborRanking") != null) {
+				sWalkParameters.setNeighborRanking(
+						CooccurrenceSparsifier.Ranking.valueOf(ns.getString("neighborRanking").toUpperCase()));
+			}
+			if (ns.getInt("minCount") != null) {
+				sWalkParameters.setMinCount(ns.getInt("minCount"));
+			}
+			if (ns.getInt("threads") != null) {
+				ComputePool.setNumThreads(ns.getInt("threads"));
+			}
+			if (ns.getLong("seed") != null) {
+				AspectModelRecommender.setDefaultSeed(ns.getLong("seed"));
+			}
+			sSeriesShare = SeriesPageRankModel.Share.valueOf(ns.getString("seriesShare").toUpperCase());
 			sFiles = ns.<String>getList("file");
 			
-			RecommenderBuilder builder = getRecommenderBuilder(sRecommenderType);
 			NFoldTest test = new NFoldTest(sFiles, sFlagOutput);
-			test.testInParallel(builder, sRecommenderType, sNumEvaluated);
+			List<Double> alphas = ns.<Double>getList("alphas");
+			if (alphas != null && sRecommenderType.equals("RWR")) {
+				double[] alphaArray = new double[alphas.size()];
+				for (int a=0; a<alphaArray.length; a++) {
+					alphaArray[a] = alphas.get(a);
+				}
+				test.testAlphas(sWalkParameters, alphaArray, sRecommenderType, sNumEvaluated);
+			} else {
+				RecommenderBuilder builder = getRecommenderBuilder(sRecommenderType);
+				test.testInParallel(builder, sRecommenderType, sNumEvaluated);
+			}
 		} catch (ArgumentParserException e) {
 			parser.handleError(e);
 			System.exit(1);
@@ -105,9 +221,19 @@ public class CFPTest {
 		} else if (recommenderType.equals("Popularity")) { // Popularity
 			return ItemPopularityRecommender.getRecommenderBuilder();
 		} else if (recommenderType.equals("RWR")) { // Random Walk with Restart
-			return PersonalizedPageRankRecommender.getRecommenderBuilder();
+			return PersonalizedPageRankRecommender.getRecommenderBuilder(sWalkParameters);
+		} else if (recommenderType.equals("RWRBipartite")) { // Random Walk with Restart over the user-item graph
+			return BipartitePageRankModel.getRecommenderBuilder(sWalkParameters);
+		} else if (recommenderType.equals("RWRPush")) { // Random Walk with Restart by forward push
+			return ForwardPushPageRankModel.getRecommenderBuilder(sWalkParameters);
+		} else if (recommenderType.equals("RWRMC")) { // Random Walk with Restart by Monte Carlo walkers
+			return MonteCarloPageRankModel.getRecommenderBuilder(sWalkParameters);
+		} else if (recommenderType.equals("RWRBasis")) { // Random Walk with Restart from precomputed item ranks
+			return ItemBasisPageRankModel.getRecommenderBuilder(sWalkParameters);
+		} else if (recommenderType.equals("RWRSeries")) { // Random Walk with Restart over series
+			return SeriesPageRankModel.getRecommenderBuilder(sWalkParameters, new MetaData(new File(sMetaData)), sSeriesShare);
 		} else if (recommenderType.equals("LFM")) { // Latent Factor Model
-			return AspectModelRecommender.getRecommenderBuilder(sFactor);
+			return AspectModelRecommender.getRecommenderBuilder(sFactor, sFusedTraining);
 		} else if (recommenderType.equals("SDM")) { // Series-Deadline Model
 			return SeriesDeadlineRecommender.getRecommenderBuilder(sFactor, new MetaData(new File(sMetaData)), true);
 		} else if (recommenderType.equals("SDPM")) { // Series-Deadline-Popularity Model
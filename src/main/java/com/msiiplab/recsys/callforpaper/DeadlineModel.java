@@ -4,15 +4,14 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 
 import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
 import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.msiiplab.recsys.rwr.ComputePool;
+
 public class DeadlineModel {
 	
 	private FastByIDMap<List<Double>> mTimeSeriesData;
@@ -159,29 +158,16 @@ public class DeadlineModel {
 	}
 	
 	private <T> List<T> runCallableList(ArrayList<Callable<T>> callableList) {
-		ArrayList<T> resultList = new ArrayList<T>();
-		
-		int N_CPUS = Runtime.getRuntime().availableProcessors();
-		ExecutorService pool = Executors.newFixedThreadPool(N_CPUS-1);
 		try {
-			List<Future<T>> futureList = pool.invokeAll(callableList);
-			for (Future<T> future: futureList) {
-				try {
-					resultList.add(future.get());
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				} catch (ExecutionException e) {
-					e.printStackTrace();
-					e.getCause().printStackTrace();
-					System.exit(1);
-				}
-			}
+			return ComputePool.getInstance().invokeAll(callableList);
 		} catch (InterruptedException e) {
 			e.printStackTrace();
-		} finally {
-			pool.shutdown();
+		} catch (ExecutionException e) {
+			e.printStackTrace();
+			e.getCause().printStackTrace();
+			System.exit(1);
 		}
-		return resultList;
+		return new ArrayList<T>();
 	}
 	
 	public abstract class ParameterCallable<T,I> implements Callable<T> {
@@ -17,7 +17,6 @@
 
 package com.msiiplab.recsys.implicit;
 
-import java.util.ArrayList;
 import java.util.Collection;
 import org.apache.mahout.cf.taste.common.Refreshable;
 import org.apache.mahout.cf.taste.common.TasteException;
@@ -33,6 +32,7 @@ import org.apache.mahout.cf.taste.similarity.PreferenceInferrer;
 import org.apache.mahout.cf.taste.similarity.UserSimilarity;
 
 import com.msiiplab.recsys.lfm.AspectModelRecommender;
+import com.msiiplab.recsys.rwr.ItemIndex;
 
 /**
  * <p>
@@ -70,25 +70,25 @@ public final class TanimotoLFMCoefficientSimilarity extends
 		mUserPrefEntropy = new FastByIDMap<Double>();
 		mItemPrefEntropy = new FastByIDMap<Double>();
 		int numOfLatentFactor = mAspectModelRecommender.getNumOfLatentFactor();
-		ArrayList<FastByIDMap<Double>> userConditional = mAspectModelRecommender.getUserConditional();
-		ArrayList<FastByIDMap<Double>> itemConditional = mAspectModelRecommender.getItemConditional();
-		ArrayList<Double> latentPrior = mAspectModelRecommender.getLatentPrior();
+		double[][] userConditional = mAspectModelRecommender.getUserConditional();
+		double[][] itemConditional = mAspectModelRecommender.getItemConditional();
+		double[] latentPrior = mAspectModelRecommender.getLatentPrior();
+		ItemIndex userIndex = mAspectModelRecommender.getUserIndex();
+		ItemIndex itemIndex = mAspectModelRecommender.getItemIndex();
 		double[] distribution = new double[numOfLatentFactor];
-		for (LongPrimitiveIterator it_user = getDataModel().getUserIDs(); it_user.hasNext();) {
-			long userID = it_user.nextLong();
+		for (int u = 0; u < userIndex.size(); u++) {
 			for (int i = 0; i < distribution.length; i++) {
-				distribution[i] = userConditional.get(i).get(userID) * latentPrior.get(i);
+				distribution[i] = userConditional[u][i] * latentPrior[i];
 			}
 			double entropy = getEntropy(distribution);
-			mUserPrefEntropy.put(userID, entropy);
+			mUserPrefEntropy.put(userIndex.getItemID(u), entropy);
 		}
-		for (LongPrimitiveIterator it_item = getDataModel().getItemIDs(); it_item.hasNext();) {
-			long itemID = it_item.nextLong();
+		for (int item = 0; item < itemIndex.size(); item++) {
 			for (int i = 0; i < distribution.length; i++) {
-				distribution[i] = itemConditional.get(i).get(itemID) * latentPrior.get(i);
+				distribution[i] = itemConditional[item][i] * latentPrior[i];
 			}
 			double entropy = getEntropy(distribution);
-			mItemPrefEntropy.put(itemID, entropy);
+			mItemPrefEntropy.put(itemIndex.getItemID(item), entropy);
 		}
 	}
 	
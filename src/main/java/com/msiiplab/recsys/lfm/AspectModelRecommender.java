@@ -1,24 +1,23 @@
 package com.msiiplab.recsys.lfm;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.Random;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
 import org.apache.mahout.cf.taste.common.Refreshable;
 import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.eval.RecommenderBuilder;
-import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
 import org.apache.mahout.cf.taste.impl.common.FastIDSet;
 import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
 import org.apache.mahout.cf.taste.impl.recommender.AbstractRecommender;
 import org.apache.mahout.cf.taste.impl.recommender.TopItems;
 import org.apache.mahout.cf.taste.model.DataModel;
-import org.apache.mahout.cf.taste.model.Preference;
 import org.apache.mahout.cf.taste.model.PreferenceArray;
 import org.apache.mahout.cf.taste.recommender.CandidateItemsStrategy;
 import org.apache.mahout.cf.taste.recommender.IDRescorer;
@@ -28,24 +27,66 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Preconditions;
+import com.msiiplab.recsys.rwr.ComputePool;
+import com.msiiplab.recsys.rwr.ItemIndex;
 
 public class AspectModelRecommender extends AbstractRecommender {
 	
 	private static final int sMaxLoop = 200;
 	private static final double sThreshold = 0.00001;
+	// seed of the models built without one, null draws a new seed per model
+	private static Long sDefaultSeed = null;
 	
 	public static final Logger log = LoggerFactory.getLogger(AspectModelRecommender.class);
 	
-	// model parameters
-	private ArrayList<Double> mLatentPrior;
-	private ArrayList<FastByIDMap<Double>> mUserConditional;
-	private ArrayList<FastByIDMap<Double>> mItemConditional;
-	private FastByIDMap<FastByIDMap<ArrayList<Double>>> mLatentExpectation;
-	private Long mTotalCount;
-	private Integer mNumOfLatentFactor;
+	// model parameters, users and items by their dense index
+	private double[] mLatentPrior;
+	// P(u|z) and P(i|z), one row of K factors per user or item
+	private double[][] mUserConditional;
+	private double[][] mItemConditional;
+	// P(z|u,i) of each preference, preferences of user u are mPrefPtr[u]..mPrefPtr[u+1]-1
+	private double[][] mLatentExpectation;
+	private ItemIndex mUserIndex;
+	private ItemIndex mItemIndex;
+	private int[] mPrefPtr;
+	private int[] mPrefItems;
+	private long mTotalCount;
+	private int mNumOfLatentFactor;
+	// fused training keeps no posteriors, see fusedStep()
+	private final boolean mFusedTraining;
+	// master seed of the initialization, each task draws from its own stream, see getRandom()
+	private final long mSeed;
+	// users of partition k are mPartitions[k]..mPartitions[k+1]-1, each partition sums up 
+	// its own item and factor statistics for the next parameters. Its item rows are those
+	// of the items its users rated, mPartitionItems[k] in ascending order, and preference
+	// p adds to row mPrefRows[p] of its partition
+	private int[] mPartitions;
+	private int[][] mPartitionItems;
+	private int[] mPrefRows;
+	private double[][][] mItemStatistics;
+	private double[][] mFactorStatistics;
+	private double[][] mNextUserConditional;
 
 	public AspectModelRecommender(DataModel dataModel, int factor) {
+		this(dataModel, factor, false);
+	}
+	
+	/**
+	 * @param fusedTraining compute the posterior of each preference when it is 
+	 * 		used instead of storing them, see {@link #fusedStep()}
+	 */
+	public AspectModelRecommender(DataModel dataModel, int factor, boolean fusedTraining) {
+		this(dataModel, factor, fusedTraining, getDefaultSeed());
+	}
+	
+	/**
+	 * @param seed models of the same data, factor and seed are initialized 
+	 * 		identically, whatever the number of threads
+	 */
+	public AspectModelRecommender(DataModel dataModel, int factor, boolean fusedTraining, long seed) {
 		super(dataModel);
+		mFusedTraining = fusedTraining;
+		mSeed = seed;
 		try {
 			modelFitting(factor);
 		} catch (TasteException e) {
@@ -55,6 +96,8 @@ public class AspectModelRecommender extends AbstractRecommender {
 	
 	public AspectModelRecommender(DataModel dataModel, CandidateItemsStrategy candidateItemsStrategy, int factor) {
 		super(dataModel, candidateItemsStrategy);
+		mFusedTraining = false;
+		mSeed = getDefaultSeed();
 		try {
 			modelFitting(factor);
 		} catch (TasteException e) {
@@ -63,14 +106,20 @@ public class AspectModelRecommender extends AbstractRecommender {
 	}
 	
 	private void modelFitting(int factor) throws TasteException {
+		log.info("Initializing {} latent factors with seed {}", factor, mSeed);
 		initializeModel(factor);
 		double oldLogLikelihood = Double.MIN_VALUE;
 		double logLikelihood = getLogLikelihood();
 		for (int loop=0; loop<sMaxLoop; loop++) {
-			eStep();
-			mStep();
 			oldLogLikelihood = logLikelihood;
-			logLikelihood = getLogLikelihood();
+			if (mFusedTraining) {
+				// the likelihood comes with the pass, it is the one before the update
+				logLikelihood = fusedStep();
+			} else {
+				eStep();
+				mStep();
+				logLikelihood = getLogLikelihood();
+			}
 			log.info("OldLogLikelihood = " + oldLogLikelihood + "; logLikelihood = " + logLikelihood);
 			if (loop > 10) {
 				if (Math.abs((logLikelihood - oldLogLikelihood) / logLikelihood) < sThreshold) {
@@ -79,33 +128,23 @@ public class AspectModelRecommender extends AbstractRecommender {
 				}
 			}
 		}
+		if (mFusedTraining) {
+			logLikelihood = getLogLikelihood();
+		}
 		System.out.println("logLikelihood: "+logLikelihood);
 	}
 	
 	private <T> List<T> runCallableList(ArrayList<Callable<T>> callableList) {
-		ArrayList<T> resultList = new ArrayList<T>();
-		
-		int N_CPUS = Runtime.getRuntime().availableProcessors();
-		ExecutorService pool = Executors.newFixedThreadPool(N_CPUS-1);
 		try {
-			List<Future<T>> futureList = pool.invokeAll(callableList);
-			for (Future<T> future: futureList) {
-				try {
-					resultList.add(future.get());
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				} catch (ExecutionException e) {
-					e.printStackTrace();
-					e.getCause().printStackTrace();
-					System.exit(1);
-				}
-			}
+			return ComputePool.getInstance().invokeAll(callableList);
 		} catch (InterruptedException e) {
 			e.printStackTrace();
-		} finally {
-			pool.shutdown();
+		} catch (ExecutionException e) {
+			e.printStackTrace();
+			e.getCause().printStackTrace();
+			System.exit(1);
 		}
-		return resultList;
+		return new ArrayList<T>();
 	}
 	
 	public abstract class ParameterCallable<T,I> implements Callable<T> {
@@ -117,38 +156,34 @@ public class AspectModelRecommender extends AbstractRecommender {
 	
 	private void eStep() throws TasteException {
 		ArrayList<Callable<Integer>> callableList = new ArrayList<Callable<Integer>>();
-		LongPrimitiveIterator it_user = getDataModel().getUserIDs();
-		while (it_user.hasNext()) {
-			long userID = it_user.nextLong();
-			callableList.add(new EStepCallable(userID));
+		for (int u=0; u<mUserIndex.size(); u++) {
+			callableList.add(new EStepCallable(u));
 		}
 		runCallableList(callableList);
 	}
 	
 	public class EStepCallable implements Callable<Integer> {
 		
-		private final long mUserID;
+		private final int mUser;
 		
-		public EStepCallable(long userID) {
-			mUserID = userID;
+		public EStepCallable(int user) {
+			mUser = user;
 		}
 
 		@Override
 		public Integer call() throws Exception {
-			PreferenceArray userPrefs = getDataModel().getPreferencesFromUser(mUserID);
-			for (Preference pref : userPrefs) {
-				long itemID = pref.getItemID();
-				ArrayList<Double> expectation = mLatentExpectation.get(mUserID).get(itemID);
+			double[] userConditional = mUserConditional[mUser];
+			for (int p=mPrefPtr[mUser]; p<mPrefPtr[mUser+1]; p++) {
+				double[] itemConditional = mItemConditional[mPrefItems[p]];
+				double[] expectation = mLatentExpectation[p];
 				double probSum = 0.0;
 				for (int i=0; i<mNumOfLatentFactor; i++) {
-					double prob = mLatentPrior.get(i) 
-							* mUserConditional.get(i).get(mUserID) 
-							* mItemConditional.get(i).get(itemID);
+					double prob = mLatentPrior[i] * userConditional[i] * itemConditional[i];
 					probSum += prob;
-					expectation.set(i, prob);
+					expectation[i] = prob;
 				}
 				for (int i=0; i<mNumOfLatentFactor; i++) {
-					expectation.set(i, expectation.get(i)/probSum);
+					expectation[i] /= probSum;
 				}
 			}
 			return 1;
@@ -156,210 +191,384 @@ public class AspectModelRecommender extends AbstractRecommender {
 		
 	}
 	
+	/**
+	 * M-step over the stored posteriors, each partition of users sums up the
+	 * statistics of its users and items, see {@link #updateParameters()}
+	 */
 	private void mStep() throws TasteException {
 		ArrayList<Callable<Integer>> callableList = new ArrayList<Callable<Integer>>();
-		for (int i=0; i<mNumOfLatentFactor; i++) {
-			callableList.add(new ParameterCallable<Integer,Integer>(i){
+		for (int k=0; k<mPartitions.length-1; k++) {
+			callableList.add(new ParameterCallable<Integer,Integer>(k) {
 				@Override
 				public Integer call() throws Exception {
-					int i = mParameter;
-					
-					FastByIDMap<Double> iUserConditional = mUserConditional.get(i);
-					FastByIDMap<Double> iItemConditional = mItemConditional.get(i);
-					// Initialization
-					{
-						synchronized (mLatentPrior) {
-							mLatentPrior.set(i, 0.0);
-						}
-						LongPrimitiveIterator it_user = iUserConditional.keySetIterator();
-						while (it_user.hasNext()) {
-							long userID = it_user.nextLong();
-							iUserConditional.put(userID, 0.0);
-						}
-						LongPrimitiveIterator it_item = iItemConditional.keySetIterator();
-						while (it_item.hasNext()) {
-							long itemID = it_item.nextLong();
-							iItemConditional.put(itemID, 0.0);
-						}
-					}
-					{
-						// Item and User Conditional
-						double totalProb = 0.0;
-						{
-							LongPrimitiveIterator it_user = getDataModel().getUserIDs();
-							while (it_user.hasNext()) {
-								long userID = it_user.nextLong();
-								PreferenceArray userPrefs = getDataModel().getPreferencesFromUser(userID);
-								for (Preference pref : userPrefs) {
-									long itemID = pref.getItemID();
-									double prob = mLatentExpectation.get(userID).get(itemID).get(i);
-									iUserConditional.put(userID, iUserConditional.get(userID) + prob);
-									iItemConditional.put(itemID, iItemConditional.get(itemID) + prob);
-									totalProb += prob;
-								}
+					int k = mParameter;
+					double[][] itemStatistics = clearStatistics(k);
+					for (int u=mPartitions[k]; u<mPartitions[k+1]; u++) {
+						double[] userStatistics = mNextUserConditional[u];
+						Arrays.fill(userStatistics, 0.0);
+						for (int p=mPrefPtr[u]; p<mPrefPtr[u+1]; p++) {
+							double[] expectation = mLatentExpectation[p];
+							double[] itemStatisticsRow = itemStatistics[mPrefRows[p]];
+							for (int i=0; i<mNumOfLatentFactor; i++) {
+								userStatistics[i] += expectation[i];
+								itemStatisticsRow[i] += expectation[i];
 							}
 						}
-						{
-							LongPrimitiveIterator it_user = iUserConditional.keySetIterator();
-							while (it_user.hasNext()) {
-								long userID = it_user.nextLong();
-								iUserConditional.put(userID, iUserConditional.get(userID) / totalProb);
+						addFactorStatistics(k, userStatistics);
+					}
+					return 1;
+				}
+			});
+		}
+		runCallableList(callableList);
+		updateParameters();
+	}
+	
+	/**
+	 * One EM iteration in one pass over the preferences. The posterior P(z|u,i) 
+	 * of a preference is computed from the current parameters and added right
+	 * away to the statistics of the next ones, as {@link #mStep()} does with
+	 * the stored posteriors. Memory is O(K * (users + items)) plus the item
+	 * rows of the partitions, at most one per preference and usually far
+	 * fewer, instead of O(K * preferences).
+	 * @return the log-likelihood of the parameters before the update
+	 */
+	private double fusedStep() throws TasteException {
+		ArrayList<Callable<Double>> callableList = new ArrayList<Callable<Double>>();
+		for (int k=0; k<mPartitions.length-1; k++) {
+			callableList.add(new ParameterCallable<Double,Integer>(k) {
+				@Override
+				public Double call() throws Exception {
+					int k = mParameter;
+					double[][] itemStatistics = clearStatistics(k);
+					double[] posterior = new double[mNumOfLatentFactor];
+					double logLikelihood = 0.0;
+					for (int u=mPartitions[k]; u<mPartitions[k+1]; u++) {
+						double[] userConditional = mUserConditional[u];
+						double[] userStatistics = mNextUserConditional[u];
+						Arrays.fill(userStatistics, 0.0);
+						for (int p=mPrefPtr[u]; p<mPrefPtr[u+1]; p++) {
+							double[] itemConditional = mItemConditional[mPrefItems[p]];
+							double probSum = 0.0;
+							for (int i=0; i<mNumOfLatentFactor; i++) {
+								double prob = mLatentPrior[i] * userConditional[i] * itemConditional[i];
+								probSum += prob;
+								posterior[i] = prob;
 							}
-							LongPrimitiveIterator it_item = iItemConditional.keySetIterator();
-							while (it_item.hasNext()) {
-								long itemID = it_item.nextLong();
-								iItemConditional.put(itemID, iItemConditional.get(itemID) / totalProb);
+							logLikelihood += Math.log(probSum);
+							double[] itemStatisticsRow = itemStatistics[mPrefRows[p]];
+							for (int i=0; i<mNumOfLatentFactor; i++) {
+								double prob = posterior[i] / probSum;
+								userStatistics[i] += prob;
+								itemStatisticsRow[i] += prob;
 							}
 						}
-						// Latent Prior
-						synchronized (mLatentPrior) {
-							mLatentPrior.set(i, totalProb / mTotalCount);
+						addFactorStatistics(k, userStatistics);
+					}
+					return logLikelihood;
+				}
+			});
+		}
+		double logLikelihood = 0.0;
+		for (double partitionLogLikelihood: runCallableList(callableList)) {
+			logLikelihood += partitionLogLikelihood;
+		}
+		updateParameters();
+		return logLikelihood;
+	}
+	
+	// zeroes the statistics of partition k, only touched by its task
+	private double[][] clearStatistics(int k) {
+		double[][] itemStatistics = mItemStatistics[k];
+		for (double[] row: itemStatistics) {
+			Arrays.fill(row, 0.0);
+		}
+		Arrays.fill(mFactorStatistics[k], 0.0);
+		return itemStatistics;
+	}
+	
+	private void addFactorStatistics(int k, double[] userStatistics) {
+		double[] factorStatistics = mFactorStatistics[k];
+		for (int i=0; i<mNumOfLatentFactor; i++) {
+			factorStatistics[i] += userStatistics[i];
+		}
+	}
+	
+	/**
+	 * Turns the statistics of the partitions into the next parameters. The 
+	 * user rows are complete, a user belongs to one partition. Each range of 
+	 * item rows sums up the rows of every partition that has them, then all 
+	 * rows are normalized by the factor totals, in parallel over the ranges.
+	 */
+	private void updateParameters() {
+		final int numPartitions = mPartitions.length - 1;
+		final double[] totalProb = new double[mNumOfLatentFactor];
+		for (double[] factorStatistics: mFactorStatistics) {
+			for (int i=0; i<mNumOfLatentFactor; i++) {
+				totalProb[i] += factorStatistics[i];
+			}
+		}
+		// the item rows are only read by the steps, they are overwritten in place
+		final double[][] itemConditional = mItemConditional;
+		ArrayList<Callable<Integer>> callableList = new ArrayList<Callable<Integer>>();
+		for (int k=0; k<numPartitions; k++) {
+			callableList.add(new ParameterCallable<Integer,Integer>(k) {
+				@Override
+				public Integer call() throws Exception {
+					int k = mParameter;
+					normalize(mNextUserConditional, mPartitions[k], mPartitions[k+1], totalProb);
+					int from = (int) ((long) itemConditional.length * k / numPartitions);
+					int to = (int) ((long) itemConditional.length * (k+1) / numPartitions);
+					for (int item=from; item<to; item++) {
+						Arrays.fill(itemConditional[item], 0.0);
+					}
+					for (int source=0; source<numPartitions; source++) {
+						int[] items = mPartitionItems[source];
+						double[][] itemStatistics = mItemStatistics[source];
+						int row = Arrays.binarySearch(items, from);
+						for (row = row < 0 ? -row-1 : row; row<items.length && items[row]<to; row++) {
+							double[] targetRow = itemConditional[items[row]];
+							double[] sourceRow = itemStatistics[row];
+							for (int i=0; i<mNumOfLatentFactor; i++) {
+								targetRow[i] += sourceRow[i];
+							}
 						}
 					}
+					normalize(itemConditional, from, to, totalProb);
 					return 1;
-				}});
+				}
+			});
 		}
 		runCallableList(callableList);
+		for (int i=0; i<mNumOfLatentFactor; i++) {
+			mLatentPrior[i] = totalProb[i] / mTotalCount;
+		}
+		
+		double[][] temp = mUserConditional;
+		mUserConditional = mNextUserConditional;
+		mNextUserConditional = temp;
+	}
+	
+	// divides rows from..to-1 by the factor totals
+	private void normalize(double[][] conditional, int from, int to, double[] totalProb) {
+		for (int row=from; row<to; row++) {
+			for (int i=0; i<mNumOfLatentFactor; i++) {
+				conditional[row][i] /= totalProb[i];
+			}
+		}
+	}
+	
+	// contiguous ranges of users, about as many preferences each
+	private static int[] getPartitions(int[] prefPtr, int numPartitions) {
+		int numUsers = prefPtr.length - 1;
+		numPartitions = Math.max(1, Math.min(numPartitions, numUsers));
+		int[] partitions = new int[numPartitions+1];
+		int u = 0;
+		for (int k=1; k<numPartitions; k++) {
+			long target = (long) prefPtr[numUsers] * k / numPartitions;
+			while (u < numUsers && prefPtr[u] < target) {
+				u ++;
+			}
+			partitions[k] = u;
+		}
+		partitions[numPartitions] = numUsers;
+		return partitions;
 	}
 	
 	private void initializeModel(int numOfLatentFactor) throws TasteException {
 		Preconditions.checkArgument(numOfLatentFactor > 0 && numOfLatentFactor <= 2000, "num of latent factors must be between 0 and 100");
 		
 		mNumOfLatentFactor = numOfLatentFactor;
-		mLatentPrior = new ArrayList<Double>(mNumOfLatentFactor+1);
+		mUserIndex = getUserIndex(getDataModel());
+		mItemIndex = ItemIndex.getInstance(getDataModel());
+		final int numUsers = mUserIndex.size();
+		final int numItems = mItemIndex.size();
+		
+		// preferences in user index order
+		mPrefPtr = new int[numUsers+1];
+		for (int u=0; u<numUsers; u++) {
+			mPrefPtr[u+1] = mPrefPtr[u] + getDataModel().getPreferencesFromUser(mUserIndex.getItemID(u)).length();
+		}
+		mPrefItems = new int[mPrefPtr[numUsers]];
+		for (int u=0; u<numUsers; u++) {
+			PreferenceArray userPrefs = getDataModel().getPreferencesFromUser(mUserIndex.getItemID(u));
+			for (int k=0; k<userPrefs.length(); k++) {
+				mPrefItems[mPrefPtr[u]+k] = mItemIndex.indexOf(userPrefs.getItemID(k));
+			}
+		}
+		mTotalCount = mPrefItems.length;
+		
+		mLatentPrior = new double[mNumOfLatentFactor];
 		{
+			Random random = getRandom(mSeed, 0);
 			double sumPrior = 0.0;
 			for (int i=0; i<mNumOfLatentFactor; i++) {
-				double value = Math.random();
-				mLatentPrior.add(value);
+				double value = random.nextDouble();
+				mLatentPrior[i] = value;
 				sumPrior += value;
 			}
 			for (int i=0; i<mNumOfLatentFactor; i++) {
-				mLatentPrior.set(i, mLatentPrior.get(i)/sumPrior);
+				mLatentPrior[i] /= sumPrior;
 			}
 		}
 		
-		mUserConditional = new ArrayList<FastByIDMap<Double>>(mNumOfLatentFactor+1);
-		ArrayList<Callable<FastByIDMap<Double>>> userCallableList = new ArrayList<Callable<FastByIDMap<Double>>>();
+		mUserConditional = new double[numUsers][mNumOfLatentFactor];
+		mItemConditional = new double[numItems][mNumOfLatentFactor];
+		ArrayList<Callable<Integer>> conditionalCallableList = new ArrayList<Callable<Integer>>();
 		for (int i=0; i<mNumOfLatentFactor; i++) {
-			userCallableList.add(new Callable<FastByIDMap<Double>>() {
+			conditionalCallableList.add(new ParameterCallable<Integer,Integer>(i) {
 				@Override
-				public FastByIDMap<Double> call() throws Exception {
-					double sumUserConditional = 0.0;
-					FastByIDMap<Double> userConditional = new FastByIDMap<Double>();
-					
-					LongPrimitiveIterator it_user = getDataModel().getUserIDs();
-					while (it_user.hasNext()) {
-						long userID = it_user.nextLong();
-						double value = Math.random();
-						userConditional.put(userID, value);
-						sumUserConditional += value;
-					}
-					it_user = getDataModel().getUserIDs();
-					while (it_user.hasNext()) {
-						long userID = it_user.nextLong();
-						userConditional.put(userID, userConditional.get(userID)/sumUserConditional);
-					}
-					
-					return userConditional;
+				public Integer call() throws Exception {
+					int i = mParameter;
+					initializeConditional(mUserConditional, i, getRandom(mSeed, 1 + i));
+					initializeConditional(mItemConditional, i, getRandom(mSeed, 1 + mNumOfLatentFactor + i));
+					return 1;
 				}
 			});
 		}
-		mUserConditional.addAll(runCallableList(userCallableList));
+		runCallableList(conditionalCallableList);
 		
-		mItemConditional = new ArrayList<FastByIDMap<Double>>(mNumOfLatentFactor+1);
-		ArrayList<Callable<FastByIDMap<Double>>> itemCallableList = new ArrayList<Callable<FastByIDMap<Double>>>();
-		for (int i=0; i<mNumOfLatentFactor; i++) {
-			itemCallableList.add(new Callable<FastByIDMap<Double>>() {
+		mPartitions = getPartitions(mPrefPtr, ComputePool.getInstance().getNumThreads());
+		initializeStatistics();
+		mFactorStatistics = new double[mPartitions.length-1][mNumOfLatentFactor];
+		mNextUserConditional = new double[numUsers][mNumOfLatentFactor];
+		if (!mFusedTraining) {
+			initializeLatentExpectation();
+		}
+	}
+	
+	// item rows of each partition, over the items its users rated
+	private void initializeStatistics() {
+		int numPartitions = mPartitions.length - 1;
+		mPartitionItems = new int[numPartitions][];
+		mPrefRows = new int[mPrefItems.length];
+		mItemStatistics = new double[numPartitions][][];
+		ArrayList<Callable<Integer>> callableList = new ArrayList<Callable<Integer>>();
+		for (int k=0; k<numPartitions; k++) {
+			callableList.add(new ParameterCallable<Integer,Integer>(k) {
 				@Override
-				public FastByIDMap<Double> call() throws Exception {
-					double sumItemConditional = 0.0;
-					FastByIDMap<Double> itemConditional = new FastByIDMap<Double>();
-					
-					LongPrimitiveIterator it_item = getDataModel().getItemIDs();
-					while (it_item.hasNext()) {
-						long itemID = it_item.nextLong();
-						double value = Math.random();
-						itemConditional.put(itemID, value);
-						sumItemConditional += value;
+				public Integer call() throws Exception {
+					int k = mParameter;
+					int from = mPrefPtr[mPartitions[k]];
+					int to = mPrefPtr[mPartitions[k+1]];
+					int[] items = Arrays.copyOfRange(mPrefItems, from, to);
+					Arrays.sort(items);
+					int num = 0;
+					for (int n=0; n<items.length; n++) {
+						if (num == 0 || items[n] != items[num-1]) {
+							items[num++] = items[n];
+						}
 					}
-					it_item = getDataModel().getItemIDs();
-					while (it_item.hasNext()) {
-						long itemID = it_item.nextLong();
-						itemConditional.put(itemID, itemConditional.get(itemID)/sumItemConditional);
+					items = Arrays.copyOf(items, num);
+					for (int p=from; p<to; p++) {
+						mPrefRows[p] = Arrays.binarySearch(items, mPrefItems[p]);
 					}
-					
-					return itemConditional;
+					mPartitionItems[k] = items;
+					mItemStatistics[k] = new double[num][mNumOfLatentFactor];
+					return 1;
 				}
 			});
 		}
-		mItemConditional.addAll(runCallableList(itemCallableList));
-		
-		mLatentExpectation = new FastByIDMap<FastByIDMap<ArrayList<Double>>>();
+		runCallableList(callableList);
+	}
+	
+	// random posteriors, overwritten by the first E-step
+	private void initializeLatentExpectation() {
+		mLatentExpectation = new double[mPrefItems.length][];
 		ArrayList<Callable<Integer>> latentCallableList = new ArrayList<Callable<Integer>>();
-		LongPrimitiveIterator it_user = getDataModel().getUserIDs();
-		while (it_user.hasNext()) {
-			long userID = it_user.nextLong();
-			latentCallableList.add(new ParameterCallable<Integer,Long>(userID) {
+		for (int u=0; u<mUserIndex.size(); u++) {
+			latentCallableList.add(new ParameterCallable<Integer,Integer>(u) {
 				@Override
 				public Integer call() throws Exception {
-					long userID = mParameter;
-					
-					FastByIDMap<ArrayList<Double>> expectation = new FastByIDMap<ArrayList<Double>>();
-					
-					PreferenceArray userPrefs = getDataModel().getPreferencesFromUser(userID);
-					for (Preference pref : userPrefs) {
-						long itemID = pref.getItemID();
-						ArrayList<Double> array = new ArrayList<Double>(mNumOfLatentFactor+1);
-						
+					int u = mParameter;
+					Random random = getRandom(mSeed, 1 + 2 * mNumOfLatentFactor + u);
+					for (int p=mPrefPtr[u]; p<mPrefPtr[u+1]; p++) {
+						double[] array = new double[mNumOfLatentFactor];
 						double sumPrior = 0.0;
-						
 						for (int i=0; i<mNumOfLatentFactor; i++) {
-							double value = Math.random();
-							array.add(value);
+							double value = random.nextDouble();
+							array[i] = value;
 							sumPrior += value;
 						}
 						for (int i=0; i<mNumOfLatentFactor; i++) {
-							array.set(i, array.get(i)/sumPrior);
+							array[i] /= sumPrior;
 						}
-						
-						expectation.put(itemID, array);
-					}
-					synchronized (mLatentExpectation) {
-						mLatentExpectation.put(userID, expectation);
+						mLatentExpectation[p] = array;
 					}
 					return 1;
 				}
 			});
 		}
 		runCallableList(latentCallableList);
-		
-		mTotalCount = 0L;
-		LongPrimitiveIterator it_item = getDataModel().getItemIDs();
-		while (it_item.hasNext()) {
-			long itemID = it_item.nextLong();
-			mTotalCount += getDataModel().getNumUsersWithPreferenceFor(itemID);
+	}
+	
+	// random factor i of each row, normalized over the rows
+	private static void initializeConditional(double[][] conditional, int i, Random random) {
+		double sumConditional = 0.0;
+		for (double[] row: conditional) {
+			double value = random.nextDouble();
+			row[i] = value;
+			sumConditional += value;
 		}
-
+		for (double[] row: conditional) {
+			row[i] /= sumConditional;
+		}
+	}
+	
+	/**
+	 * Stream 0 draws the prior, 1..K the user conditionals, K+1..2K the item 
+	 * conditionals and 2K+1+u the posteriors of user u. The seed and stream
+	 * are mixed by the splitmix64 finalizer, so that the generators of 
+	 * neighbouring streams are not correlated.
+	 */
+	private static Random getRandom(long seed, long stream) {
+		long z = seed + (stream + 1) * 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return new Random(z ^ (z >>> 31));
+	}
+	
+	private static synchronized long getDefaultSeed() {
+		return sDefaultSeed != null ? sDefaultSeed : new Random().nextLong();
+	}
+	
+	/**
+	 * Sets the seed of the models built without one, e.g. inside 
+	 * {@link SeriesDeadlineRecommender}
+	 */
+	public static synchronized void setDefaultSeed(long seed) {
+		sDefaultSeed = seed;
+	}
+	
+	public long getSeed() {
+		return mSeed;
+	}
+	
+	private static ItemIndex getUserIndex(DataModel dataModel) throws TasteException {
+		long[] userIDs = new long[dataModel.getNumUsers()];
+		int num = 0;
+		LongPrimitiveIterator it_user = dataModel.getUserIDs();
+		while (it_user.hasNext()) {
+			userIDs[num++] = it_user.nextLong();
+		}
+		return new ItemIndex(Arrays.copyOf(userIDs, num));
 	}
 	
 	private double getLogLikelihood() throws TasteException {
 		double totalLogLikelihood = 0.0;
 		ArrayList<Callable<Double>> callableList = new ArrayList<Callable<Double>>();
-		LongPrimitiveIterator it_user = getDataModel().getUserIDs();
-		while (it_user.hasNext()) {
-			long userID = it_user.nextLong();
-			callableList.add(new ParameterCallable<Double, Long>(userID) {
+		for (int u=0; u<mUserIndex.size(); u++) {
+			callableList.add(new ParameterCallable<Double, Integer>(u) {
 				@Override
 				public Double call() throws Exception {
-					long userID = mParameter;
+					int u = mParameter;
 					double logLikelihood = 0.0;
-					PreferenceArray userPrefs = getDataModel().getPreferencesFromUser(userID);
-					for (Preference pref : userPrefs) {
-						long itemID = pref.getItemID();
+					double[] userConditional = mUserConditional[u];
+					for (int p=mPrefPtr[u]; p<mPrefPtr[u+1]; p++) {
+						double[] itemConditional = mItemConditional[mPrefItems[p]];
 						double prob = 0.0;
 						for (int i=0; i<mNumOfLatentFactor; i++) {
-							prob += mLatentPrior.get(i) * mItemConditional.get(i).get(itemID) * mUserConditional.get(i).get(userID);
+							prob += mLatentPrior[i] * itemConditional[i] * userConditional[i];
 						}
 						logLikelihood += Math.log(prob);
 					}
@@ -394,13 +603,37 @@ public class AspectModelRecommender extends AbstractRecommender {
 	@Override
 	public float estimatePreference(long userID, long itemID)
 			throws TasteException {
+		return (float) estimatePreference(getUserWeights(userID), itemID);
+	}
+	
+	/**
+	 * @return P(z) * P(u|z) of each factor z, shared by all items of the user
+	 */
+	private double[] getUserWeights(long userID) throws TasteException {
+		int u = mUserIndex.indexOf(userID);
+		if (u < 0) {
+			throw new NoSuchUserException(userID);
+		}
+		double[] weights = new double[mNumOfLatentFactor];
+		for (int i=0; i<mNumOfLatentFactor; i++) {
+			weights[i] = mLatentPrior[i] * mUserConditional[u][i];
+		}
+		return weights;
+	}
+	
+	private double estimatePreference(double[] userWeights, long itemID) throws TasteException {
+		int item = mItemIndex.indexOf(itemID);
+		if (item < 0) {
+			throw new NoSuchItemException(itemID);
+		}
+		double[] itemConditional = mItemConditional[item];
 		double prob = 0.0;
 		for (int i=0; i<mNumOfLatentFactor; i++) {
-			prob += mLatentPrior.get(i) * mItemConditional.get(i).get(itemID) * mUserConditional.get(i).get(userID);
+			prob += userWeights[i] * itemConditional[i];
 		}
 		// multiply a constant won't affect the relative ranking of items
 		prob *= getDataModel().getNumItems();
-		return (float) prob;
+		return prob;
 	}
 
 	@Override
@@ -408,38 +641,59 @@ public class AspectModelRecommender extends AbstractRecommender {
 	}
 	
 	public class Estimator implements TopItems.Estimator<Long> {
-		private final long theUserID;
-		public Estimator(long userID) {
-			theUserID = userID;
+		private final double[] mUserWeights;
+		public Estimator(long userID) throws TasteException {
+			mUserWeights = getUserWeights(userID);
 		}
 		@Override
 		public double estimate(Long itemID) throws TasteException {
-			return estimatePreference(theUserID, itemID);
+			return (float) estimatePreference(mUserWeights, itemID);
 		}
 	}
 	
-	public ArrayList<Double> getLatentPrior() {
+	/**
+	 * @return P(z) of each factor z
+	 */
+	public double[] getLatentPrior() {
 		return mLatentPrior;
 	}
 
-	public ArrayList<FastByIDMap<Double>> getUserConditional() {
+	/**
+	 * @return P(u|z), one row of factors per user in the order of {@link #getUserIndex()}
+	 */
+	public double[][] getUserConditional() {
 		return mUserConditional;
 	}
 
-	public ArrayList<FastByIDMap<Double>> getItemConditional() {
+	/**
+	 * @return P(i|z), one row of factors per item in the order of {@link #getItemIndex()}
+	 */
+	public double[][] getItemConditional() {
 		return mItemConditional;
 	}
 
-	public Integer getNumOfLatentFactor() {
+	public ItemIndex getUserIndex() {
+		return mUserIndex;
+	}
+
+	public ItemIndex getItemIndex() {
+		return mItemIndex;
+	}
+
+	public int getNumOfLatentFactor() {
 		return mNumOfLatentFactor;
 	}
 
 	public static RecommenderBuilder getRecommenderBuilder(final int factor) {
+		return getRecommenderBuilder(factor, false);
+	}
+
+	public static RecommenderBuilder getRecommenderBuilder(final int factor, final boolean fusedTraining) {
 		return new RecommenderBuilder() {
 			@Override
 			public Recommender buildRecommender(DataModel dataModel)
 					throws TasteException {
-				return new AspectModelRecommender(dataModel, factor);
+				return new AspectModelRecommender(dataModel, factor, fusedTraining);
 			}
 		};
 	}
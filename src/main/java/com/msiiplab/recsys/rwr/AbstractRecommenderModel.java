@@ -1,22 +1,49 @@
 package com.msiiplab.recsys.rwr;
 
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+
 import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
 import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.recommender.PreferredItemsNeighborhoodCandidateItemsStrategy;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.recommender.CandidateItemsStrategy;
 
 public abstract class AbstractRecommenderModel implements RecommenderModel {
-	protected UserPreferenceCache mUserPreferenceCache;
+	protected ConcurrentUserCache<FastByIDMap<Double>> mUserPreferenceCache;
 	protected static final float sLoadFactor = 3f;
 	protected static final int sInitialSize = 10;
+	// 0 caches the full score maps, otherwise only the top K of each user
+	private int mTopK;
+	private final ConcurrentUserCache<TopKPreferences> mTopKCache;
+	// full scores of the last few users looked up outside their top K
+	private final ConcurrentUserCache<FastByIDMap<Double>> mFullPreferenceCache;
+	// the default of AbstractRecommender, so that the top K ranks the same items
+	private static final CandidateItemsStrategy sCandidateItemsStrategy = 
+			new PreferredItemsNeighborhoodCandidateItemsStrategy();
 
 	
 	public AbstractRecommenderModel() {
-		mUserPreferenceCache = new UserPreferenceCache(sInitialSize, sLoadFactor);
+		mUserPreferenceCache = new ConcurrentUserCache<FastByIDMap<Double>>();
+		mTopK = 0;
+		mTopKCache = new ConcurrentUserCache<TopKPreferences>();
+		// one user per thread
+		mFullPreferenceCache = new ConcurrentUserCache<FastByIDMap<Double>>(
+				ComputePool.getInstance().getNumThreads(), 0, null);
 	}
 	
 	@Override
 	public double getCachedPreferencesForUserAndItem(long userID, long itemID)
 			throws TasteException {
+		if (mTopK > 0) {
+			double value = getTopKPreferencesForUser(userID).get(itemID);
+			if (!Double.isNaN(value)) {
+				return value;
+			}
+		}
 		FastByIDMap<Double> userPreference = getCachedPreferencesForUser(userID);
 		if (userPreference.containsKey(itemID)) {
 			return userPreference.get(itemID);
@@ -25,19 +52,200 @@ public abstract class AbstractRecommenderModel implements RecommenderModel {
 		}
 	}
 
+	/**
+	 * In top K mode the full scores are only kept for the last few users, 
+	 * about one per thread, so that looking up the items of a user outside
+	 * the top K walks once.
+	 */
 	@Override
-	public FastByIDMap<Double> getCachedPreferencesForUser(long userID)
+	public FastByIDMap<Double> getCachedPreferencesForUser(final long userID)
 			throws TasteException {
-		FastByIDMap<Double> map = mUserPreferenceCache.getCache(userID);
-		if (map != null) {
-			return map;
+		Callable<FastByIDMap<Double>> loader = new Callable<FastByIDMap<Double>>() {
+			@Override
+			public FastByIDMap<Double> call() throws TasteException {
+				return getPreferencesForUser(userID);
+			}
+		};
+		if (mTopK > 0) {
+			return mFullPreferenceCache.get(userID, loader);
+		}
+		return mUserPreferenceCache.get(userID, loader);
+	}
+
+	@Override
+	public TopKPreferences getTopKPreferencesForUser(final long userID) throws TasteException {
+		if (mTopK <= 0) {
+			throw new IllegalStateException("top K mode is off");
+		}
+		return mTopKCache.get(userID, new Callable<TopKPreferences>() {
+			@Override
+			public TopKPreferences call() throws TasteException {
+				return getTopKPreferences(userID, getPreferencesForUser(userID));
+			}
+		});
+	}
+
+	/**
+	 * @return the cache of full scores, with its hit and miss counters
+	 */
+	public ConcurrentUserCache<FastByIDMap<Double>> getUserPreferenceCache() {
+		return mUserPreferenceCache;
+	}
+
+	@Override
+	public int getTopK() {
+		return mTopK;
+	}
+
+	/**
+	 * @param topK number of best scores cached per user, e.g. the largest 
+	 * 		howMany asked for, 0 caches the full scores
+	 */
+	protected void setTopK(int topK) {
+		mTopK = topK;
+	}
+
+	/**
+	 * @return the only items kept in the top K of the user, the items a 
+	 * 		recommender would rank for them, null keeps every scored item
+	 */
+	protected FastIDSet getCandidateItemIDs(long userID) throws TasteException {
+		return null;
+	}
+
+	/**
+	 * @return the items {@link org.apache.mahout.cf.taste.impl.recommender.AbstractRecommender} 
+	 * 		ranks for the user by default, none if the user is unknown
+	 */
+	protected static FastIDSet getCandidateItemIDs(DataModel dataModel, long userID) throws TasteException {
+		try {
+			return sCandidateItemsStrategy.getCandidateItems(userID, 
+					dataModel.getPreferencesFromUser(userID), dataModel);
+		} catch (NoSuchUserException e) {
+			return new FastIDSet();
+		}
+	}
+
+	private TopKPreferences getTopKPreferences(long userID, FastByIDMap<Double> preferences) 
+			throws TasteException {
+		FastIDSet candidates = getCandidateItemIDs(userID);
+		if (candidates == null) {
+			return TopKPreferences.getInstance(preferences, mTopK, new FastIDSet());
+		}
+		return TopKPreferences.getCandidateInstance(preferences, mTopK, candidates);
+	}
+
+	/**
+	 * @return the full scores of the user from the cache in use, in top K
+	 * 		mode the one of the last few users, null when not cached
+	 */
+	protected FastByIDMap<Double> getCachedFullPreferencesIfPresent(long userID) {
+		if (mTopK > 0) {
+			return mFullPreferenceCache.getIfPresent(userID);
+		}
+		return mUserPreferenceCache.getIfPresent(userID);
+	}
+
+	/**
+	 * Not supported by default
+	 */
+	@Override
+	public void setPreference(long userID, long itemID, float value) throws TasteException {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Not supported by default
+	 */
+	@Override
+	public void removePreference(long userID, long itemID) throws TasteException {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Nothing to refresh by default
+	 */
+	@Override
+	public void refresh() throws TasteException {
+	}
+
+	/**
+	 * Drops the cached scores of the user, they are recomputed on the next call
+	 */
+	protected void invalidate(long userID) {
+		mUserPreferenceCache.remove(userID);
+		mTopKCache.remove(userID);
+		mFullPreferenceCache.remove(userID);
+	}
+
+	/**
+	 * Only the full scores of one block are held at a time, they are cached,
+	 * or reduced to the top K, before the next block is scored
+	 */
+	@Override
+	public void prefetchPreferencesForUsers(long[] userIDs) throws TasteException {
+		long[] uncached = new long[userIDs.length];
+		int numUncached = 0;
+		for (long userID: userIDs) {
+			if (!isCached(userID)) {
+				uncached[numUncached++] = userID;
+			}
+		}
+		int batchSize = getBatchSize();
+		for (int from=0; from<numUncached; from+=batchSize) {
+			long[] block = Arrays.copyOfRange(uncached, from, Math.min(from + batchSize, numUncached));
+			long start = System.nanoTime();
+			FastByIDMap<FastByIDMap<Double>> preferences = getPreferencesForUsers(block);
+			long loadTime = System.nanoTime() - start;
+			for (long userID: block) {
+				if (mTopK <= 0) {
+					// the block time is shared evenly by its users
+					mUserPreferenceCache.recordLoad(loadTime / block.length);
+				}
+				cachePreferences(userID, preferences.get(userID));
+			}
+		}
+	}
+
+	/**
+	 * One by default, override along with {@link #getPreferencesForUsers(long[])}
+	 */
+	@Override
+	public int getBatchSize() {
+		return 1;
+	}
+
+	/**
+	 * Caches scores computed outside the caches, unless the user is already
+	 * cached, only their top K in top K mode
+	 */
+	protected void cachePreferences(long userID, FastByIDMap<Double> preferences) throws TasteException {
+		if (mTopK > 0) {
+			mTopKCache.putIfAbsent(userID, getTopKPreferences(userID, preferences));
 		} else {
-			FastByIDMap<Double> preferences = getPreferencesForUser(userID);
-			mUserPreferenceCache.setCache(userID, preferences);
-			return preferences;
+			mUserPreferenceCache.putIfAbsent(userID, preferences);
 		}
 	}
 
+	private boolean isCached(long userID) {
+		if (mTopK > 0) {
+			return mTopKCache.containsKey(userID);
+		}
+		return mUserPreferenceCache.containsKey(userID);
+	}
+
 	abstract protected FastByIDMap<Double> getPreferencesForUser(long userID)
 			throws TasteException;
+	
+	/**
+	 * Override to score several users together, the default scores one by one
+	 */
+	protected FastByIDMap<FastByIDMap<Double>> getPreferencesForUsers(long[] userIDs)
+			throws TasteException {
+		FastByIDMap<FastByIDMap<Double>> preferences = new FastByIDMap<FastByIDMap<Double>>(userIDs.length);
+		for (long userID: userIDs) {
+			preferences.put(userID, getPreferencesForUser(userID));
+		}
+		return preferences;
+	}
 }
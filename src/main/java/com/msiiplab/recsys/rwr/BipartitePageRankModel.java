@@ -0,0 +1,42 @@
+package com.msiiplab.recsys.rwr;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.eval.RecommenderBuilder;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+
+/**
+ * Personalized PageRank walking item -> user -> item over the preferences
+ * with a {@link BipartiteTransitionMatrix}. Scores equal those of
+ * {@link PersonalizedPageRankModel}, while memory and the cost of a step are
+ * O(preferences) instead of O(co-occurrence edges), which matters once
+ * popular items link to everything.
+ */
+public class BipartitePageRankModel extends PersonalizedPageRankModel {
+
+	protected BipartitePageRankModel(DataModel dataModel, RandomWalkParameters parameters)
+			throws TasteException {
+		super(dataModel, parameters, 
+				BipartiteTransitionMatrix.getInstance(ItemIndex.getInstance(dataModel), dataModel));
+	}
+
+	public static BipartitePageRankModel getInstance(DataModel dataModel, RandomWalkParameters parameters) {
+		try {
+			return new BipartitePageRankModel(dataModel, parameters);
+		} catch (TasteException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	public static RecommenderBuilder getRecommenderBuilder(final RandomWalkParameters parameters) {
+		return new RecommenderBuilder() {
+			@Override
+			public Recommender buildRecommender(DataModel dataModel)
+					throws TasteException {
+				return new PersonalizedPageRankRecommender( dataModel,
+						BipartitePageRankModel.getInstance(dataModel, parameters));
+			}
+		};
+	}
+}
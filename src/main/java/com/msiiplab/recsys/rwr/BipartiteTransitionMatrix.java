@@ -0,0 +1,265 @@
+package com.msiiplab.recsys.rwr;
+
+import java.util.concurrent.RecursiveAction;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+
+/**
+ * Transition matrix walking item -> user -> item over the incidence lists.
+ *
+ * From item i a user u of i is picked with probability |u| / S_i, where
+ * S_i = sum_{u of i} |u|, and then an item of u uniformly, which gives
+ * exactly the collapsed co-occurrence walk: P(i -> j) = count(i,j) / S_i.
+ * The |u| cancel, so a step is (M*V)(j) = sum_{u of j} sum_{i of u} V(i) / S_i,
+ * one pass over the preferences instead of the co-occurrence edges. Like
+ * {@link CooccurrenceBuilder}, preference values are ignored.
+ */
+public class BipartiteTransitionMatrix implements TransitionMatrix {
+
+	private static final float sLoadFactor = 3f;
+	// minimum multiply-adds of a fork join task
+	private static final int sGrainSize = 1 << 16;
+
+	private final ItemIndex mItemIndex;
+	// items of each user
+	private final int[] mUserPtr;
+	private final int[] mUserItems;
+	// users of each item
+	private final int[] mItemPtr;
+	private final int[] mItemUsers;
+	// 1 / S_i
+	private final double[] mInvItemSum;
+	private final ThreadLocal<double[]> mUserBuffer;
+
+	public BipartiteTransitionMatrix(ItemIndex itemIndex, int[] userPtr, int[] userItems) {
+		int size = itemIndex.size();
+		int numUsers = userPtr.length-1;
+		int nnz = userPtr[numUsers];
+		mItemIndex = itemIndex;
+		mUserPtr = userPtr;
+		mUserItems = userItems;
+
+		mItemPtr = new int[size+1];
+		mInvItemSum = new double[size];
+		for (int u=0; u<numUsers; u++) {
+			int userSize = userPtr[u+1] - userPtr[u];
+			for (int k=userPtr[u]; k<userPtr[u+1]; k++) {
+				mItemPtr[userItems[k]+1] ++;
+				mInvItemSum[userItems[k]] += userSize;
+			}
+		}
+		for (int i=0; i<size; i++) {
+			mItemPtr[i+1] += mItemPtr[i];
+			if (mInvItemSum[i] > 0) {
+				mInvItemSum[i] = 1.0 / mInvItemSum[i];
+			}
+		}
+		mItemUsers = new int[nnz];
+		int[] next = new int[size];
+		System.arraycopy(mItemPtr, 0, next, 0, size);
+		for (int u=0; u<numUsers; u++) {
+			for (int k=userPtr[u]; k<userPtr[u+1]; k++) {
+				mItemUsers[next[userItems[k]]++] = u;
+			}
+		}
+		mUserBuffer = new ThreadLocal<double[]>();
+	}
+
+	/**
+	 * @param itemIndex dictionary of all items, preferences of other items are ignored
+	 */
+	public static BipartiteTransitionMatrix getInstance(ItemIndex itemIndex, DataModel dataModel)
+			throws TasteException {
+		int numUsers = dataModel.getNumUsers();
+		int[] userPtr = new int[numUsers+1];
+		int u = 0;
+		LongPrimitiveIterator it_user = dataModel.getUserIDs();
+		while (it_user.hasNext()) {
+			PreferenceArray prefs = dataModel.getPreferencesFromUser(it_user.nextLong());
+			int userSize = 0;
+			for (int k=0; k<prefs.length(); k++) {
+				if (itemIndex.indexOf(prefs.getItemID(k)) >= 0) {
+					userSize ++;
+				}
+			}
+			userPtr[u+1] = userPtr[u] + userSize;
+			u ++;
+		}
+		int[] userItems = new int[userPtr[numUsers]];
+		u = 0;
+		it_user = dataModel.getUserIDs();
+		while (it_user.hasNext()) {
+			PreferenceArray prefs = dataModel.getPreferencesFromUser(it_user.nextLong());
+			int next = userPtr[u];
+			for (int k=0; k<prefs.length(); k++) {
+				int i = itemIndex.indexOf(prefs.getItemID(k));
+				if (i >= 0) {
+					userItems[next++] = i;
+				}
+			}
+			u ++;
+		}
+		return new BipartiteTransitionMatrix(itemIndex, userPtr, userItems);
+	}
+
+	@Override
+	public int getSize() {
+		return mItemIndex.size();
+	}
+
+	public int getNumUsers() {
+		return mUserPtr.length-1;
+	}
+
+	/**
+	 * @return number of user-item edges
+	 */
+	@Override
+	public int getNumNonZeros() {
+		return mUserItems.length;
+	}
+
+	@Override
+	public ItemIndex getItemIndex() {
+		return mItemIndex;
+	}
+
+	@Override
+	public ColumnVector mul(ColumnVector V) throws TasteException {
+		DenseColumnVector x = new DenseColumnVector(mItemIndex);
+		x.assign(V.mVector);
+		DenseColumnVector y = new DenseColumnVector(mItemIndex);
+		mul(x, y);
+		double[] values = y.getValues();
+		FastByIDMap<Double> vector = new FastByIDMap<Double>(values.length, sLoadFactor);
+		for (int j=0; j<values.length; j++) {
+			if (values[j] != 0.0) {
+				vector.put(mItemIndex.getItemID(j), values[j]);
+			}
+		}
+		return new ColumnVector(vector);
+	}
+
+	@Override
+	public void mul(DenseColumnVector V, DenseColumnVector result) {
+		double[] x = V.getValues();
+		double[] y = result.getValues();
+		double[] userMass = getUserBuffer(1);
+		// item -> user
+		for (int u=0; u<mUserPtr.length-1; u++) {
+			double mass = 0.0;
+			for (int k=mUserPtr[u]; k<mUserPtr[u+1]; k++) {
+				int i = mUserItems[k];
+				mass += x[i] * mInvItemSum[i];
+			}
+			userMass[u] = mass;
+		}
+		// user -> item
+		for (int j=0; j<y.length; j++) {
+			double value = 0.0;
+			for (int k=mItemPtr[j]; k<mItemPtr[j+1]; k++) {
+				value += userMass[mItemUsers[k]];
+			}
+			y[j] = value;
+		}
+	}
+
+	/**
+	 * Single threaded, the user side buffer is not split
+	 */
+	@Override
+	public void parallelMul(DenseColumnVector V, DenseColumnVector result) {
+		mul(V, result);
+	}
+
+	/**
+	 * Split across the shared pool, single threaded when called from a worker of the pool
+	 */
+	@Override
+	public void mul(DenseColumnBlock V, DenseColumnBlock result) {
+		int width = V.getWidth();
+		double[] userMass = getUserBuffer(width);
+		if (ComputePool.isWorkerThread()) {
+			halfStep(mUserPtr, mUserItems, mInvItemSum, V.getValues(), userMass, 
+					width, 0, getNumUsers());
+			halfStep(mItemPtr, mItemUsers, null, userMass, result.getValues(), 
+					width, 0, getSize());
+			return;
+		}
+		CSRStochasticMatrix.getForkJoinPool().invoke(
+				new HalfStepAction(mUserPtr, mUserItems, mInvItemSum, V.getValues(), userMass,
+						width, 0, getNumUsers()));
+		CSRStochasticMatrix.getForkJoinPool().invoke(
+				new HalfStepAction(mItemPtr, mItemUsers, null, userMass, result.getValues(),
+						width, 0, getSize()));
+	}
+
+	// per thread buffer of the user side, width values per user
+	private double[] getUserBuffer(int width) {
+		double[] buffer = mUserBuffer.get();
+		if (buffer == null || buffer.length != getNumUsers() * width) {
+			buffer = new double[getNumUsers() * width];
+			mUserBuffer.set(buffer);
+		}
+		return buffer;
+	}
+
+	// y[r] = sum_k scale[col[k]] * x[col[k]] over rows [from, to), for every column of a block
+	private static void halfStep(int[] ptr, int[] col, double[] scale, double[] x, double[] y,
+			int width, int from, int to) {
+		for (int r=from; r<to; r++) {
+			int offset = r * width;
+			for (int b=0; b<width; b++) {
+				y[offset+b] = 0.0;
+			}
+			for (int k=ptr[r]; k<ptr[r+1]; k++) {
+				double weight = scale == null ? 1.0 : scale[col[k]];
+				int source = col[k] * width;
+				for (int b=0; b<width; b++) {
+					y[offset+b] += weight * x[source+b];
+				}
+			}
+		}
+	}
+
+	// halfStep over rows [mFrom, mTo), split in halves until small enough
+	private static class HalfStepAction extends RecursiveAction {
+		private static final long serialVersionUID = -2217806140574011632L;
+		private final int[] mPtr;
+		private final int[] mCol;
+		private final double[] mScale;
+		private final double[] mX;
+		private final double[] mY;
+		private final int mWidth;
+		private final int mFrom;
+		private final int mTo;
+
+		public HalfStepAction(int[] ptr, int[] col, double[] scale, double[] x, double[] y,
+				int width, int from, int to) {
+			mPtr = ptr;
+			mCol = col;
+			mScale = scale;
+			mX = x;
+			mY = y;
+			mWidth = width;
+			mFrom = from;
+			mTo = to;
+		}
+
+		@Override
+		protected void compute() {
+			long work = (long) (mPtr[mTo] - mPtr[mFrom]) * mWidth;
+			if (work > sGrainSize && mTo - mFrom > 1) {
+				int middle = (mFrom + mTo) >>> 1;
+				invokeAll(new HalfStepAction(mPtr, mCol, mScale, mX, mY, mWidth, mFrom, middle),
+						new HalfStepAction(mPtr, mCol, mScale, mX, mY, mWidth, middle, mTo));
+				return;
+			}
+			halfStep(mPtr, mCol, mScale, mX, mY, mWidth, mFrom, mTo);
+		}
+	}
+}
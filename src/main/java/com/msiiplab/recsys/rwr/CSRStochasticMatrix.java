@@ -0,0 +1,371 @@
+package com.msiiplab.recsys.rwr;
+
+import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+
+/**
+ * Compressed sparse row transition matrix over dense item indices.
+ *
+ * Row j holds the in-coming edges of item j: mColIdx[k] is the source item i
+ * and mWeights[k] = count(i,j) / colSum(i), normalized once at build time,
+ * so (M*V)(j) = sum_k mWeights[k] * V(mColIdx[k]) is a plain gather.
+ *
+ * Large parallel vector products and block products are split into row
+ * partitions of about equal non-zeros on the fork join pool of {@link ComputePool}.
+ * Each partition owns its rows of the result, so partitions need neither
+ * private buffers nor locks. Products called from a worker of the pool run
+ * in the calling thread.
+ */
+public class CSRStochasticMatrix implements TransitionMatrix {
+
+	private static final float sLoadFactor = 3f;
+	// minimum multiply-adds of a fork join task
+	private static final int sGrainSize = 1 << 16;
+	// minimum estimated multiply-adds of a single vector product split across the pool
+	private static final int sParallelThreshold = 1 << 18;
+	// partitions per pool thread, so that a slow thread does not hold up the others
+	private static final int sPartitionsPerThread = 4;
+
+	private final ItemIndex mItemIndex;
+	private final int[] mRowPtr;
+	private final int[] mColIdx;
+	private final double[] mWeights;
+	// row boundaries of the partitions of a parallel vector product
+	private final int[] mPartitions;
+
+	public CSRStochasticMatrix(ItemIndex itemIndex, int[] rowPtr, int[] colIdx, double[] weights) {
+		mItemIndex = itemIndex;
+		mRowPtr = rowPtr;
+		mColIdx = colIdx;
+		mWeights = weights;
+		mPartitions = partition(rowPtr, getNumPartitions());
+	}
+
+	/**
+	 * @param itemIndex dictionary of all items, counts of other items are ignored
+	 * @param counts co-occurrence counts, counts[i][j] is the edge i -> j
+	 */
+	public static CSRStochasticMatrix getInstance(ItemIndex itemIndex,
+			FastByIDMap<FastByIDMap<Long>> counts) throws TasteException {
+		int size = itemIndex.size();
+
+		// number of in-coming edges of each row
+		int[] rowPtr = new int[size+1];
+		for (int i=0; i<size; i++) {
+			FastByIDMap<Long> row = counts.get(itemIndex.getItemID(i));
+			if (row != null) {
+				LongPrimitiveIterator it_j = row.keySetIterator();
+				while (it_j.hasNext()) {
+					int j = itemIndex.indexOf(it_j.nextLong());
+					if (j >= 0) {
+						rowPtr[j+1] ++;
+					}
+				}
+			}
+		}
+		for (int j=0; j<size; j++) {
+			rowPtr[j+1] += rowPtr[j];
+		}
+
+		// fill rows in ascending source order
+		int nnz = rowPtr[size];
+		int[] colIdx = new int[nnz];
+		double[] weights = new double[nnz];
+		int[] next = new int[size];
+		System.arraycopy(rowPtr, 0, next, 0, size);
+		for (int i=0; i<size; i++) {
+			FastByIDMap<Long> row = counts.get(itemIndex.getItemID(i));
+			if (row == null) {
+				continue;
+			}
+			long sum = 0;
+			for (long value: row.values()) {
+				sum += value;
+			}
+			if (sum <= 0) {
+				throw new TasteException("column sum <= 0, while value != 0");
+			}
+			LongPrimitiveIterator it_j = row.keySetIterator();
+			while (it_j.hasNext()) {
+				long itemID = it_j.nextLong();
+				int j = itemIndex.indexOf(itemID);
+				if (j >= 0) {
+					int k = next[j]++;
+					colIdx[k] = i;
+					weights[k] = (double) row.get(itemID) / sum;
+				}
+			}
+		}
+		return new CSRStochasticMatrix(itemIndex, rowPtr, colIdx, weights);
+	}
+
+	/**
+	 * @return the matrix with rows and columns swapped, i.e. row i holds the 
+	 * 		out-going edges of item i with weights P(i -> j)
+	 */
+	public CSRStochasticMatrix transpose() {
+		int size = getSize();
+		int nnz = getNumNonZeros();
+		int[] rowPtr = new int[size+1];
+		for (int k=0; k<nnz; k++) {
+			rowPtr[mColIdx[k]+1] ++;
+		}
+		for (int i=0; i<size; i++) {
+			rowPtr[i+1] += rowPtr[i];
+		}
+		int[] colIdx = new int[nnz];
+		double[] weights = new double[nnz];
+		int[] next = new int[size];
+		System.arraycopy(rowPtr, 0, next, 0, size);
+		for (int j=0; j<size; j++) {
+			for (int k=mRowPtr[j]; k<mRowPtr[j+1]; k++) {
+				int t = next[mColIdx[k]]++;
+				colIdx[t] = j;
+				weights[t] = mWeights[k];
+			}
+		}
+		return new CSRStochasticMatrix(mItemIndex, rowPtr, colIdx, weights);
+	}
+
+	/**
+	 * @return number of non-zeros in row i
+	 */
+	public int getRowSize(int i) {
+		return mRowPtr[i+1] - mRowPtr[i];
+	}
+
+	@Override
+	public int getSize() {
+		return mItemIndex.size();
+	}
+
+	@Override
+	public int getNumNonZeros() {
+		return mRowPtr[mRowPtr.length-1];
+	}
+
+	@Override
+	public ItemIndex getItemIndex() {
+		return mItemIndex;
+	}
+
+	@Override
+	public ColumnVector mul(ColumnVector V) throws TasteException {
+		int size = getSize();
+		double[] x = new double[size];
+		Iterator<Long> i_set = V.mVector.keySetIterator();
+		while (i_set.hasNext()) {
+			long itemID = i_set.next();
+			int i = mItemIndex.indexOf(itemID);
+			if (i >= 0) {
+				x[i] = V.mVector.get(itemID);
+			}
+		}
+
+		double[] y = new double[size];
+		mulRows(x, y, 0, size);
+		FastByIDMap<Double> vector = new FastByIDMap<Double>(size, sLoadFactor);
+		for (int j=0; j<size; j++) {
+			if (y[j] != 0.0) {
+				vector.put(mItemIndex.getItemID(j), y[j]);
+			}
+		}
+		return new ColumnVector(vector);
+	}
+
+	@Override
+	public void mul(DenseColumnVector V, DenseColumnVector result) {
+		mulRows(V.getValues(), result.getValues(), 0, getSize());
+	}
+
+	/**
+	 * Split across the shared pool when the product is large enough, see
+	 * {@link #isParallel(TransitionMatrix, DenseColumnVector, int)}
+	 */
+	@Override
+	public void parallelMul(DenseColumnVector V, DenseColumnVector result) {
+		double[] x = V.getValues();
+		double[] y = result.getValues();
+		if (isParallel(this, V, mPartitions.length-1)) {
+			parallelMul(x, y);
+		} else {
+			mulRows(x, y, 0, y.length);
+		}
+	}
+
+	// one task per partition
+	void parallelMul(double[] x, double[] y) {
+		getForkJoinPool().invoke(new PartitionMulAction(x, y, 0, mPartitions.length-1));
+	}
+
+	/**
+	 * @return whether a vector product is split into the partitions, the 
+	 * 		multiply-adds reaching the non-zeros of V, estimated as their number
+	 * 		times the average edges per item, must be over sParallelThreshold.
+	 * 		Never from a worker of the pool, whose users are walked concurrently.
+	 */
+	static boolean isParallel(TransitionMatrix matrix, DenseColumnVector V, int numPartitions) {
+		if (numPartitions < 2 || ComputePool.isWorkerThread()) {
+			return false;
+		}
+		long work = (long) V.getNumNonZeros() * matrix.getNumNonZeros() / Math.max(1, matrix.getSize());
+		return work >= sParallelThreshold;
+	}
+
+	// y[j] = sum_k mWeights[k] * x[mColIdx[k]] for rows [from, to)
+	private void mulRows(double[] x, double[] y, int from, int to) {
+		for (int j=from; j<to; j++) {
+			double value = 0.0;
+			for (int k=mRowPtr[j]; k<mRowPtr[j+1]; k++) {
+				value += mWeights[k] * x[mColIdx[k]];
+			}
+			y[j] = value;
+		}
+	}
+
+	/**
+	 * @return numParts+1 row boundaries, partition p holds rows 
+	 * 		[bounds[p], bounds[p+1]) and about nnz/numParts non-zeros
+	 */
+	static int[] partition(int[] rowPtr, int numParts) {
+		int size = rowPtr.length-1;
+		long nnz = rowPtr[size];
+		int[] bounds = new int[numParts+1];
+		bounds[numParts] = size;
+		for (int p=1; p<numParts; p++) {
+			// first row starting at or after the target non-zero
+			long target = nnz * p / numParts;
+			int low = bounds[p-1];
+			int high = size;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (rowPtr[middle] < target) {
+					low = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+			bounds[p] = low;
+		}
+		return bounds;
+	}
+
+	/**
+	 * Split across the shared pool, single threaded when called from a worker of the pool
+	 */
+	@Override
+	public void mul(DenseColumnBlock V, DenseColumnBlock result) {
+		if (ComputePool.isWorkerThread()) {
+			mulRows(V, result, 0, getSize());
+		} else {
+			getForkJoinPool().invoke(new BlockMulAction(V, result, 0, getSize()));
+		}
+	}
+
+	// rows [from, to) of a block product
+	private void mulRows(DenseColumnBlock V, DenseColumnBlock result, int from, int to) {
+		int width = V.getWidth();
+		double[] x = V.getValues();
+		double[] y = result.getValues();
+		for (int j=from; j<to; j++) {
+			int offset = j * width;
+			for (int b=0; b<width; b++) {
+				y[offset+b] = 0.0;
+			}
+			for (int k=mRowPtr[j]; k<mRowPtr[j+1]; k++) {
+				double weight = mWeights[k];
+				int source = mColIdx[k] * width;
+				for (int b=0; b<width; b++) {
+					y[offset+b] += weight * x[source+b];
+				}
+			}
+		}
+	}
+
+	// computes rows [mFrom, mTo) of a block product, split in halves until small enough
+	private class BlockMulAction extends RecursiveAction {
+		private static final long serialVersionUID = 4417851617364536405L;
+		private final DenseColumnBlock mV;
+		private final DenseColumnBlock mResult;
+		private final int mFrom;
+		private final int mTo;
+
+		public BlockMulAction(DenseColumnBlock V, DenseColumnBlock result, int from, int to) {
+			mV = V;
+			mResult = result;
+			mFrom = from;
+			mTo = to;
+		}
+
+		@Override
+		protected void compute() {
+			int width = mV.getWidth();
+			long work = (long) (mRowPtr[mTo] - mRowPtr[mFrom]) * width;
+			if (work > sGrainSize && mTo - mFrom > 1) {
+				int middle = (mFrom + mTo) >>> 1;
+				invokeAll(new BlockMulAction(mV, mResult, mFrom, middle),
+						new BlockMulAction(mV, mResult, middle, mTo));
+				return;
+			}
+			mulRows(mV, mResult, mFrom, mTo);
+		}
+	}
+
+	// computes partitions [mFrom, mTo) of a vector product, split in halves down to one partition
+	private class PartitionMulAction extends RecursiveAction {
+		private static final long serialVersionUID = -6262187932712045402L;
+		private final double[] mX;
+		private final double[] mY;
+		private final int mFrom;
+		private final int mTo;
+
+		public PartitionMulAction(double[] x, double[] y, int from, int to) {
+			mX = x;
+			mY = y;
+			mFrom = from;
+			mTo = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (mTo - mFrom > 1) {
+				int middle = (mFrom + mTo) >>> 1;
+				invokeAll(new PartitionMulAction(mX, mY, mFrom, middle),
+						new PartitionMulAction(mX, mY, middle, mTo));
+				return;
+			}
+			mulRows(mX, mY, mPartitions[mFrom], mPartitions[mTo]);
+		}
+	}
+
+	/**
+	 * @return the fork join pool of the matrix kernels, sized like {@link ComputePool}
+	 */
+	static ForkJoinPool getForkJoinPool() {
+		return ComputePool.getInstance().getForkJoinPool();
+	}
+
+	/**
+	 * @return the row partitions of a parallel vector product
+	 */
+	static int getNumPartitions() {
+		return ComputePool.getInstance().getNumThreads() * sPartitionsPerThread;
+	}
+
+	int[] getRowPtr() {
+		return mRowPtr;
+	}
+
+	int[] getColIdx() {
+		return mColIdx;
+	}
+
+	double[] getWeights() {
+		return mWeights;
+	}
+}
@@ -1,6 +1,7 @@
 package com.msiiplab.recsys.rwr;
 
 import java.util.Iterator;
+import java.util.Map;
 
 import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
 
@@ -58,10 +59,9 @@ public class ColumnVector {
 	
 	// in place multiply a number
 	public ColumnVector dotMul(double beta) {
-		Iterator<Long> ids = mVector.keySetIterator();
-		while (ids.hasNext()) {
-			long id = ids.next();
-			mVector.put(id, (double) (beta * mVector.get(id)));
+		// put() may rehash while iterating, so values are updated through the entries
+		for (Map.Entry<Long, Double> entry: mVector.entrySet()) {
+			entry.setValue((double) (beta * entry.getValue()));
 		}
 		return this;
 	}
@@ -0,0 +1,271 @@
+package com.msiiplab.recsys.rwr;
+
+import java.util.Iterator;
+import java.util.concurrent.RecursiveAction;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+
+/**
+ * {@link CSRStochasticMatrix} with reduced precision weights, the structure
+ * is shared with the matrix it is built from.
+ *
+ * Float weights halve the weight array. Short weights are unsigned 16 bit
+ * fractions of the largest weight of their row, w = q * mRowScale[j], so 
+ * the error of an edge is at most half a step of its row; edges under half 
+ * a step of their row are dropped. Products are computed in double.
+ */
+public class CompactCSRStochasticMatrix implements TransitionMatrix {
+
+	private static final float sLoadFactor = 3f;
+	// minimum multiply-adds of a fork join task
+	private static final int sGrainSize = 1 << 16;
+	private static final int sMaxQuantized = 0xffff;
+
+	private final ItemIndex mItemIndex;
+	private final int[] mRowPtr;
+	private final int[] mColIdx;
+	private final WeightStorage mStorage;
+	// FLOAT
+	private final float[] mFloatWeights;
+	// SHORT
+	private final short[] mShortWeights;
+	private final double[] mRowScale;
+	// row boundaries of the partitions of a parallel vector product
+	private final int[] mPartitions;
+
+	private CompactCSRStochasticMatrix(ItemIndex itemIndex, int[] rowPtr, int[] colIdx, 
+			WeightStorage storage, float[] floatWeights, short[] shortWeights, double[] rowScale) {
+		mItemIndex = itemIndex;
+		mRowPtr = rowPtr;
+		mColIdx = colIdx;
+		mStorage = storage;
+		mFloatWeights = floatWeights;
+		mShortWeights = shortWeights;
+		mRowScale = rowScale;
+		mPartitions = CSRStochasticMatrix.partition(rowPtr, CSRStochasticMatrix.getNumPartitions());
+	}
+
+	/**
+	 * @param storage FLOAT or SHORT
+	 */
+	public static CompactCSRStochasticMatrix getInstance(CSRStochasticMatrix matrix, WeightStorage storage) {
+		int[] rowPtr = matrix.getRowPtr();
+		double[] weights = matrix.getWeights();
+		int size = matrix.getSize();
+		int nnz = matrix.getNumNonZeros();
+		switch (storage) {
+		case FLOAT:
+			float[] floatWeights = new float[nnz];
+			for (int k=0; k<nnz; k++) {
+				floatWeights[k] = (float) weights[k];
+			}
+			return new CompactCSRStochasticMatrix(matrix.getItemIndex(), rowPtr, matrix.getColIdx(),
+					storage, floatWeights, null, null);
+		case SHORT:
+			short[] shortWeights = new short[nnz];
+			double[] rowScale = new double[size];
+			for (int j=0; j<size; j++) {
+				double max = 0.0;
+				for (int k=rowPtr[j]; k<rowPtr[j+1]; k++) {
+					max = Math.max(max, weights[k]);
+				}
+				rowScale[j] = max / sMaxQuantized;
+				for (int k=rowPtr[j]; k<rowPtr[j+1]; k++) {
+					shortWeights[k] = (short) Math.round(weights[k] / rowScale[j]);
+				}
+			}
+			return new CompactCSRStochasticMatrix(matrix.getItemIndex(), rowPtr, matrix.getColIdx(),
+					storage, null, shortWeights, rowScale);
+		default:
+			throw new IllegalArgumentException("no compact storage for " + storage);
+		}
+	}
+
+	/**
+	 * @return estimated bytes of the structure and weights of a CSR matrix
+	 */
+	public static long getBytes(int size, int nnz, WeightStorage storage) {
+		long bytes = 4L * (size + 1) + (4L + storage.getBytesPerWeight()) * nnz;
+		if (storage == WeightStorage.SHORT) {
+			bytes += 8L * size;
+		}
+		return bytes;
+	}
+
+	public long getBytes() {
+		return getBytes(getSize(), getNumNonZeros(), mStorage);
+	}
+
+	public WeightStorage getWeightStorage() {
+		return mStorage;
+	}
+
+	public double getWeight(int k, int row) {
+		if (mStorage == WeightStorage.FLOAT) {
+			return mFloatWeights[k];
+		}
+		return (mShortWeights[k] & sMaxQuantized) * mRowScale[row];
+	}
+
+	@Override
+	public int getSize() {
+		return mItemIndex.size();
+	}
+
+	@Override
+	public int getNumNonZeros() {
+		return mRowPtr[mRowPtr.length-1];
+	}
+
+	@Override
+	public ItemIndex getItemIndex() {
+		return mItemIndex;
+	}
+
+	@Override
+	public ColumnVector mul(ColumnVector V) throws TasteException {
+		int size = getSize();
+		double[] x = new double[size];
+		Iterator<Long> i_set = V.mVector.keySetIterator();
+		while (i_set.hasNext()) {
+			long itemID = i_set.next();
+			int i = mItemIndex.indexOf(itemID);
+			if (i >= 0) {
+				x[i] = V.mVector.get(itemID);
+			}
+		}
+		double[] y = new double[size];
+		mulRows(x, y, 0, size);
+		FastByIDMap<Double> vector = new FastByIDMap<Double>(size, sLoadFactor);
+		for (int j=0; j<size; j++) {
+			if (y[j] != 0.0) {
+				vector.put(mItemIndex.getItemID(j), y[j]);
+			}
+		}
+		return new ColumnVector(vector);
+	}
+
+	@Override
+	public void mul(DenseColumnVector V, DenseColumnVector result) {
+		mulRows(V.getValues(), result.getValues(), 0, getSize());
+	}
+
+	@Override
+	public void parallelMul(DenseColumnVector V, DenseColumnVector result) {
+		double[] x = V.getValues();
+		double[] y = result.getValues();
+		if (CSRStochasticMatrix.isParallel(this, V, mPartitions.length-1)) {
+			CSRStochasticMatrix.getForkJoinPool().invoke(
+					new PartitionMulAction(x, y, 0, mPartitions.length-1));
+		} else {
+			mulRows(x, y, 0, y.length);
+		}
+	}
+
+	// y[j] = sum_k weight(k) * x[mColIdx[k]] for rows [from, to), one loop per storage
+	private void mulRows(double[] x, double[] y, int from, int to) {
+		if (mStorage == WeightStorage.FLOAT) {
+			for (int j=from; j<to; j++) {
+				double value = 0.0;
+				for (int k=mRowPtr[j]; k<mRowPtr[j+1]; k++) {
+					value += mFloatWeights[k] * x[mColIdx[k]];
+				}
+				y[j] = value;
+			}
+		} else {
+			for (int j=from; j<to; j++) {
+				double value = 0.0;
+				for (int k=mRowPtr[j]; k<mRowPtr[j+1]; k++) {
+					value += (mShortWeights[k] & sMaxQuantized) * x[mColIdx[k]];
+				}
+				y[j] = value * mRowScale[j];
+			}
+		}
+	}
+
+	// computes partitions [mFrom, mTo) of a vector product, split in halves down to one partition
+	private class PartitionMulAction extends RecursiveAction {
+		private static final long serialVersionUID = 3497427460880637124L;
+		private final double[] mX;
+		private final double[] mY;
+		private final int mFrom;
+		private final int mTo;
+
+		public PartitionMulAction(double[] x, double[] y, int from, int to) {
+			mX = x;
+			mY = y;
+			mFrom = from;
+			mTo = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (mTo - mFrom > 1) {
+				int middle = (mFrom + mTo) >>> 1;
+				invokeAll(new PartitionMulAction(mX, mY, mFrom, middle),
+						new PartitionMulAction(mX, mY, middle, mTo));
+				return;
+			}
+			mulRows(mX, mY, mPartitions[mFrom], mPartitions[mTo]);
+		}
+	}
+
+	@Override
+	public void mul(DenseColumnBlock V, DenseColumnBlock result) {
+		if (ComputePool.isWorkerThread()) {
+			mulRows(V, result, 0, getSize());
+		} else {
+			CSRStochasticMatrix.getForkJoinPool().invoke(new BlockMulAction(V, result, 0, getSize()));
+		}
+	}
+
+	// rows [from, to) of a block product
+	private void mulRows(DenseColumnBlock V, DenseColumnBlock result, int from, int to) {
+		int width = V.getWidth();
+		double[] x = V.getValues();
+		double[] y = result.getValues();
+		for (int j=from; j<to; j++) {
+			int offset = j * width;
+			for (int b=0; b<width; b++) {
+				y[offset+b] = 0.0;
+			}
+			for (int k=mRowPtr[j]; k<mRowPtr[j+1]; k++) {
+				double weight = getWeight(k, j);
+				int source = mColIdx[k] * width;
+				for (int b=0; b<width; b++) {
+					y[offset+b] += weight * x[source+b];
+				}
+			}
+		}
+	}
+
+	// computes rows [mFrom, mTo) of a block product, split in halves until small enough
+	private class BlockMulAction extends RecursiveAction {
+		private static final long serialVersionUID = -5015785478394553617L;
+		private final DenseColumnBlock mV;
+		private final DenseColumnBlock mResult;
+		private final int mFrom;
+		private final int mTo;
+
+		public BlockMulAction(DenseColumnBlock V, DenseColumnBlock result, int from, int to) {
+			mV = V;
+			mResult = result;
+			mFrom = from;
+			mTo = to;
+		}
+
+		@Override
+		protected void compute() {
+			int width = mV.getWidth();
+			long work = (long) (mRowPtr[mTo] - mRowPtr[mFrom]) * width;
+			if (work > sGrainSize && mTo - mFrom > 1) {
+				int middle = (mFrom + mTo) >>> 1;
+				invokeAll(new BlockMulAction(mV, mResult, mFrom, middle),
+						new BlockMulAction(mV, mResult, middle, mTo));
+				return;
+			}
+			mulRows(mV, mResult, mFrom, mTo);
+		}
+	}
+}
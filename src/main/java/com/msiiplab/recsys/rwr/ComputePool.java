@@ -0,0 +1,205 @@
+package com.msiiplab.recsys.rwr;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Worker threads shared by model fitting, deadline inference and evaluation,
+ * created once instead of a thread pool per call.
+ *
+ * A list of tasks is run in a few chunks per thread, each chunk running its
+ * tasks in order, so a long list of small tasks pays one hand-off per chunk.
+ * Chunks wait in a bounded queue, a caller finding it full runs its chunk
+ * itself. Lists submitted from a worker thread run inline in that thread.
+ * A chunk submitted to a pool shut down by {@link #setNumThreads(int)} runs
+ * in the new pool.
+ *
+ * The fork join kernels of the transition matrices run on a fork join pool
+ * of the same number of threads, owned and resized with this pool. Kernels
+ * called from a worker thread run in that thread, see {@link #isWorkerThread()},
+ * so both pools share one thread budget.
+ */
+public class ComputePool {
+
+	// chunks per thread, so that a slow chunk does not hold up the others
+	private static final int sChunksPerThread = 4;
+	private static int sNumThreads = getDefaultNumThreads();
+	private static ComputePool sInstance = null;
+	// set in the threads of both the executor and the fork join pool
+	private static final ThreadLocal<Boolean> sIsWorker = new ThreadLocal<Boolean>();
+
+	private final int mNumThreads;
+	private final ThreadPoolExecutor mExecutor;
+	private final ForkJoinPool mForkJoinPool;
+
+	private ComputePool(int numThreads) {
+		mNumThreads = numThreads;
+		final AtomicInteger numCreated = new AtomicInteger();
+		mExecutor = new ThreadPoolExecutor(numThreads, numThreads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(numThreads * sChunksPerThread),
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(final Runnable runnable) {
+						Thread thread = new Thread(new Runnable() {
+							@Override
+							public void run() {
+								sIsWorker.set(Boolean.TRUE);
+								runnable.run();
+							}
+						}, "compute-" + numCreated.incrementAndGet());
+						// idle workers never keep the JVM alive
+						thread.setDaemon(true);
+						return thread;
+					}
+				},
+				new ThreadPoolExecutor.AbortPolicy());
+		mForkJoinPool = new ForkJoinPool(numThreads, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+			@Override
+			public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+				return new ForkJoinWorkerThread(pool) {
+					@Override
+					protected void onStart() {
+						super.onStart();
+						sIsWorker.set(Boolean.TRUE);
+					}
+				};
+			}
+		}, null, false);
+	}
+
+	/**
+	 * @return one thread less than the processors, leaving one to the caller, but at least 1
+	 */
+	public static int getDefaultNumThreads() {
+		return Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+	}
+
+	/**
+	 * Sets the number of threads of the shared pool, a pool created before
+	 * is shut down once its queued and running tasks are done
+	 */
+	public static synchronized void setNumThreads(int numThreads) {
+		Preconditions.checkArgument(numThreads >= 1, "numThreads must be >= 1");
+		sNumThreads = numThreads;
+		if (sInstance != null && sInstance.mNumThreads != numThreads) {
+			sInstance.mExecutor.shutdown();
+			sInstance.mForkJoinPool.shutdown();
+			sInstance = null;
+		}
+	}
+
+	public static synchronized ComputePool getInstance() {
+		if (sInstance == null) {
+			sInstance = new ComputePool(sNumThreads);
+		}
+		return sInstance;
+	}
+
+	public int getNumThreads() {
+		return mNumThreads;
+	}
+
+	/**
+	 * @return the fork join pool of the matrix kernels, of {@link #getNumThreads()} threads
+	 */
+	public ForkJoinPool getForkJoinPool() {
+		return mForkJoinPool;
+	}
+
+	/**
+	 * @return whether the current thread is a worker of the pool, whose 
+	 * 		kernels should not be split across the fork join pool
+	 */
+	public static boolean isWorkerThread() {
+		return Boolean.TRUE.equals(sIsWorker.get());
+	}
+
+	/**
+	 * Runs all tasks and waits for them
+	 * @return the results in the order of the tasks
+	 * @throws ExecutionException caused by the first failed task in order,
+	 * 		the tasks not started yet are cancelled
+	 */
+	public <T> List<T> invokeAll(List<? extends Callable<T>> tasks)
+			throws InterruptedException, ExecutionException {
+		List<T> results = new ArrayList<T>(tasks.size());
+		if (isWorkerThread()) {
+			// waiting on the queue from a worker could deadlock the pool
+			for (Callable<T> task: tasks) {
+				results.add(ChunkCallable.call(task));
+			}
+			return results;
+		}
+		int numChunks = mNumThreads * sChunksPerThread;
+		int chunkSize = Math.max(1, (tasks.size() + numChunks - 1) / numChunks);
+		List<Future<List<T>>> futures = new ArrayList<Future<List<T>>>();
+		try {
+			for (int from=0; from<tasks.size(); from+=chunkSize) {
+				futures.add(submit(new ChunkCallable<T>(
+						tasks.subList(from, Math.min(tasks.size(), from + chunkSize)))));
+			}
+			for (Future<List<T>> future: futures) {
+				results.addAll(future.get());
+			}
+		} finally {
+			for (Future<List<T>> future: futures) {
+				future.cancel(false);
+			}
+		}
+		return results;
+	}
+
+	// the caller runs the chunk when the queue is full, the new pool when this one is shut down
+	private <T> Future<List<T>> submit(ChunkCallable<T> chunk) {
+		try {
+			return mExecutor.submit(chunk);
+		} catch (RejectedExecutionException e) {
+			if (mExecutor.isShutdown()) {
+				return getInstance().submit(chunk);
+			}
+			FutureTask<List<T>> future = new FutureTask<List<T>>(chunk);
+			future.run();
+			return future;
+		}
+	}
+
+	// runs a chunk of tasks in order, a failing task fails the chunk with its own exception
+	private static class ChunkCallable<T> implements Callable<List<T>> {
+		private final List<? extends Callable<T>> mTasks;
+
+		public ChunkCallable(List<? extends Callable<T>> tasks) {
+			mTasks = tasks;
+		}
+
+		@Override
+		public List<T> call() throws Exception {
+			List<T> results = new ArrayList<T>(mTasks.size());
+			for (Callable<T> task: mTasks) {
+				results.add(task.call());
+			}
+			return results;
+		}
+
+		private static <T> T call(Callable<T> task) throws ExecutionException {
+			try {
+				return task.call();
+			} catch (Exception e) {
+				throw new ExecutionException(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,334 @@
+package com.msiiplab.recsys.rwr;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+
+/**
+ * Per user cache computing each value once.
+ *
+ * Users are spread over independently locked segments, and locks are only
+ * held to look up or insert a future, never while computing. The first
+ * caller missing a user computes it; concurrent callers of the same user
+ * wait on its future instead of computing it again. Failed computations are
+ * not cached. The entry and memory budgets hold for the whole cache: once
+ * one is exceeded, the least recently used users of the inserting segment
+ * are evicted first, then those of the following segments. Users still
+ * being computed are never evicted, so they may exceed the budget for a while.
+ */
+public class ConcurrentUserCache<V> {
+
+	/**
+	 * Estimated heap size of a cached value, for the memory budget
+	 */
+	public interface Weigher<V> {
+		public long weigh(V value);
+	}
+
+	/**
+	 * Rough heap cost of a score map: a boxed Double plus key and value slots
+	 * at load factor 2-3 per score
+	 */
+	public static class PreferenceWeigher implements Weigher<FastByIDMap<Double>> {
+		private static final int sBytesPerPreference = 50;
+		private static final int sBytesPerUser = 100;
+
+		@Override
+		public long weigh(FastByIDMap<Double> value) {
+			return sBytesPerUser + (long) value.size() * sBytesPerPreference;
+		}
+	}
+
+	private static final int sNumSegments = 16;
+
+	private final Segment<V>[] mSegments;
+	private final Weigher<V> mWeigher;
+	private final int mMaxEntries;
+	private final long mMaxBytes;
+	private final AtomicInteger mSize;
+	private final AtomicLong mBytes;
+	private final AtomicLong mHitCount;
+	private final AtomicLong mMissCount;
+	private final AtomicLong mEvictionCount;
+	private final AtomicLong mLoadCount;
+	private final AtomicLong mTotalLoadTime;
+
+	public ConcurrentUserCache() {
+		this(0, 0, null);
+	}
+
+	/**
+	 * @param maxEntries number of users kept, 0 for no limit
+	 * @param maxBytes weighed size of the kept values, 0 for no limit
+	 * @param weigher sizes values for maxBytes, may be null if maxBytes is 0
+	 */
+	@SuppressWarnings("unchecked")
+	public ConcurrentUserCache(int maxEntries, long maxBytes, Weigher<V> weigher) {
+		mSegments = new Segment[sNumSegments];
+		for (int s=0; s<sNumSegments; s++) {
+			mSegments[s] = new Segment<V>();
+		}
+		mWeigher = weigher;
+		mMaxEntries = maxEntries;
+		mMaxBytes = maxBytes;
+		mSize = new AtomicInteger();
+		mBytes = new AtomicLong();
+		mHitCount = new AtomicLong();
+		mMissCount = new AtomicLong();
+		mEvictionCount = new AtomicLong();
+		mLoadCount = new AtomicLong();
+		mTotalLoadTime = new AtomicLong();
+	}
+
+	/**
+	 * @return the cached value of the user, computed by loader on a miss
+	 * @throws TasteException thrown by loader, also to the callers waiting on it
+	 */
+	public V get(long userID, Callable<V> loader) throws TasteException {
+		Segment<V> segment = getSegment(userID);
+		Entry<V> entry;
+		boolean isLoader = false;
+		synchronized (segment) {
+			entry = segment.mMap.get(userID);
+			if (entry == null) {
+				entry = new Entry<V>(new FutureTask<V>(loader));
+				segment.mMap.put(userID, entry);
+				mSize.incrementAndGet();
+				isLoader = true;
+			}
+		}
+		if (isLoader) {
+			mMissCount.incrementAndGet();
+			long start = System.nanoTime();
+			entry.mFuture.run();
+			recordLoad(System.nanoTime() - start);
+			loaded(segment, userID, entry);
+		} else {
+			mHitCount.incrementAndGet();
+		}
+		return getValue(entry);
+	}
+
+	/**
+	 * Caches a value computed elsewhere, unless the user is already cached
+	 */
+	public void putIfAbsent(long userID, final V value) {
+		Segment<V> segment = getSegment(userID);
+		Entry<V> entry = new Entry<V>(new FutureTask<V>(new Callable<V>() {
+			@Override
+			public V call() {
+				return value;
+			}
+		}));
+		entry.mFuture.run();
+		synchronized (segment) {
+			if (segment.mMap.containsKey(userID)) {
+				return;
+			}
+			segment.mMap.put(userID, entry);
+			mSize.incrementAndGet();
+		}
+		loaded(segment, userID, entry);
+	}
+
+	/**
+	 * @return whether the user is cached or being computed, without counting a hit or miss
+	 */
+	public boolean containsKey(long userID) {
+		Segment<V> segment = getSegment(userID);
+		synchronized (segment) {
+			return segment.mMap.containsKey(userID);
+		}
+	}
+
+	/**
+	 * @return the value of the user if it is computed, else null, without 
+	 * 		counting a hit or miss
+	 */
+	public V getIfPresent(long userID) {
+		Segment<V> segment = getSegment(userID);
+		Entry<V> entry;
+		synchronized (segment) {
+			entry = segment.mMap.get(userID);
+		}
+		if (entry == null || !entry.mFuture.isDone()) {
+			return null;
+		}
+		try {
+			return entry.mFuture.get();
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	public void remove(long userID) {
+		Segment<V> segment = getSegment(userID);
+		synchronized (segment) {
+			Entry<V> entry = segment.mMap.remove(userID);
+			if (entry != null) {
+				mSize.decrementAndGet();
+				mBytes.addAndGet(-entry.mBytes);
+			}
+		}
+	}
+
+	/**
+	 * Counts the computation of users loaded outside {@link #get(long, Callable)}
+	 * @param loadTime nanoseconds spent computing one user
+	 */
+	public void recordLoad(long loadTime) {
+		mLoadCount.incrementAndGet();
+		mTotalLoadTime.addAndGet(loadTime);
+	}
+
+	private V getValue(Entry<V> entry) throws TasteException {
+		try {
+			return entry.mFuture.get();
+		} catch (InterruptedException e) {
+			throw new TasteException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof TasteException) {
+				throw (TasteException) e.getCause();
+			} else if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new TasteException(e.getCause());
+		}
+	}
+
+	// weighs a completed entry and evicts over budget, or drops it if it failed
+	private void loaded(Segment<V> segment, long userID, Entry<V> entry) {
+		V value;
+		try {
+			value = entry.mFuture.get();
+		} catch (Exception e) {
+			synchronized (segment) {
+				if (segment.mMap.get(userID) == entry) {
+					segment.mMap.remove(userID);
+					mSize.decrementAndGet();
+				}
+			}
+			return;
+		}
+		long bytes = mWeigher == null ? 0 : mWeigher.weigh(value);
+		synchronized (segment) {
+			if (segment.mMap.get(userID) != entry) {
+				return;
+			}
+			entry.mBytes = bytes;
+			mBytes.addAndGet(bytes);
+		}
+		evict(getSegmentIndex(userID), entry);
+	}
+
+	// the newest entry is kept even if it alone exceeds the budget
+	private void evict(int s, Entry<V> newest) {
+		for (int n=0; n<sNumSegments && isOverBudget(); n++) {
+			Segment<V> segment = mSegments[(s + n) % sNumSegments];
+			synchronized (segment) {
+				Iterator<Entry<V>> it = segment.mMap.values().iterator();
+				while (isOverBudget() && it.hasNext()) {
+					Entry<V> eldest = it.next();
+					// callers may be waiting on a user being computed
+					if (eldest == newest || !eldest.mFuture.isDone()) {
+						continue;
+					}
+					it.remove();
+					mSize.decrementAndGet();
+					mBytes.addAndGet(-eldest.mBytes);
+					mEvictionCount.incrementAndGet();
+				}
+			}
+		}
+	}
+
+	private boolean isOverBudget() {
+		return (mMaxEntries > 0 && mSize.get() > mMaxEntries)
+				|| (mMaxBytes > 0 && mBytes.get() > mMaxBytes);
+	}
+
+	private Segment<V> getSegment(long userID) {
+		return mSegments[getSegmentIndex(userID)];
+	}
+
+	private static int getSegmentIndex(long userID) {
+		int hash = (int) (userID ^ (userID >>> 32));
+		hash ^= (hash >>> 16);
+		return (hash & 0x7fffffff) % sNumSegments;
+	}
+
+	/**
+	 * @return number of users cached or being computed
+	 */
+	public int size() {
+		return mSize.get();
+	}
+
+	/**
+	 * @return weighed size of the kept values
+	 */
+	public long getBytes() {
+		return mBytes.get();
+	}
+
+	public long getHitCount() {
+		return mHitCount.get();
+	}
+
+	public long getMissCount() {
+		return mMissCount.get();
+	}
+
+	public long getEvictionCount() {
+		return mEvictionCount.get();
+	}
+
+	public long getLoadCount() {
+		return mLoadCount.get();
+	}
+
+	/**
+	 * @return nanoseconds spent computing missed users
+	 */
+	public long getTotalLoadTime() {
+		return mTotalLoadTime.get();
+	}
+
+	public double getHitRate() {
+		long hits = mHitCount.get();
+		long requests = hits + mMissCount.get();
+		return requests == 0 ? 1.0 : (double) hits / requests;
+	}
+
+	@Override
+	public String toString() {
+		return "size=" + size() + ", hits=" + getHitCount() + ", misses=" + getMissCount()
+				+ ", evictions=" + getEvictionCount() + ", loads=" + getLoadCount()
+				+ ", loadTime=" + getTotalLoadTime() / 1000000 + "ms, bytes=" + getBytes();
+	}
+
+	private static class Entry<V> {
+		private final FutureTask<V> mFuture;
+		private long mBytes;
+
+		public Entry(FutureTask<V> future) {
+			mFuture = future;
+		}
+	}
+
+	// in access order, the eldest entry is the least recently used
+	private static class Segment<V> {
+		private final LinkedHashMap<Long, Entry<V>> mMap;
+
+		public Segment() {
+			mMap = new LinkedHashMap<Long, Entry<V>>(16, 0.75f, true);
+		}
+	}
+}
@@ -0,0 +1,140 @@
+package com.msiiplab.recsys.rwr;
+
+import java.util.Iterator;
+
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Prunes the out-going edges of each item of a co-occurrence matrix, so
+ * that popular items do not make the transition matrix dense.
+ *
+ * Edges counted by fewer than minCount users are dropped, then only the
+ * maxNeighbors best edges of each item are kept, ranked by count or by the
+ * cosine C[i][j] / sqrt(C[i][i] * C[j][j]). The self edge C[i][i] is always
+ * kept, so no item loses all its edges. The transition matrix built from 
+ * the result is normalized over the kept edges.
+ */
+public class CooccurrenceSparsifier {
+
+	public static final Logger log = LoggerFactory.getLogger(CooccurrenceSparsifier.class);
+
+	/**
+	 * COUNT also ranks by normalized weight: the transition weight of an edge
+	 * is count(i,j) / colSum(i), the same divisor for all out-going edges of
+	 * i, so both orders are the same. COSINE normalizes by both ends instead.
+	 */
+	public enum Ranking {
+		COUNT, COSINE
+	}
+
+	private final int mMaxNeighbors;
+	private final int mMinCount;
+	private final Ranking mRanking;
+
+	/**
+	 * @param maxNeighbors edges kept per item besides the self edge, 0 keeps all
+	 * @param minCount minimum count of a kept edge
+	 */
+	public CooccurrenceSparsifier(int maxNeighbors, int minCount, Ranking ranking) {
+		mMaxNeighbors = maxNeighbors;
+		mMinCount = minCount;
+		mRanking = ranking;
+	}
+
+	public CooccurrenceSparsifier(RandomWalkParameters parameters) {
+		this(parameters.getMaxNeighbors(), parameters.getMinCount(), parameters.getNeighborRanking());
+	}
+
+	/**
+	 * @return whether {@link #sparsify(FastByIDMap)} drops anything at all
+	 */
+	public boolean isActive() {
+		return mMaxNeighbors > 0 || mMinCount > 1;
+	}
+
+	/**
+	 * @return the pruned counts, the given counts are left as they are
+	 */
+	public FastByIDMap<FastByIDMap<Long>> sparsify(FastByIDMap<FastByIDMap<Long>> counts) {
+		long start = System.currentTimeMillis();
+		long numEdges = 0;
+		long numKept = 0;
+		FastByIDMap<FastByIDMap<Long>> sparse = new FastByIDMap<FastByIDMap<Long>>(counts.size());
+		FastIDSet excluded = new FastIDSet();
+		Iterator<Long> it_i = counts.keySetIterator();
+		while (it_i.hasNext()) {
+			long i = it_i.next();
+			FastByIDMap<Long> column = counts.get(i);
+			numEdges += column.size();
+			// scores of the edges passing the count threshold
+			FastByIDMap<Double> scores = new FastByIDMap<Double>(column.size());
+			Iterator<Long> it_j = column.keySetIterator();
+			while (it_j.hasNext()) {
+				long j = it_j.next();
+				long count = column.get(j);
+				if (j != i && count >= mMinCount) {
+					scores.put(j, getScore(counts, i, j, count));
+				}
+			}
+			FastByIDMap<Long> kept = new FastByIDMap<Long>();
+			if (column.containsKey(i)) {
+				kept.put(i, column.get(i));
+			}
+			if (mMaxNeighbors > 0 && scores.size() > mMaxNeighbors) {
+				TopKPreferences best = TopKPreferences.getInstance(scores, mMaxNeighbors, excluded);
+				for (int k=0; k<best.size(); k++) {
+					kept.put(best.getItemID(k), column.get(best.getItemID(k)));
+				}
+			} else {
+				Iterator<Long> it_kept = scores.keySetIterator();
+				while (it_kept.hasNext()) {
+					long j = it_kept.next();
+					kept.put(j, column.get(j));
+				}
+			}
+			if (!kept.isEmpty()) {
+				sparse.put(i, kept);
+				numKept += kept.size();
+			}
+		}
+		log.info("Kept {} of {} co-occurrence edges in {} ms", new Object[] {
+				numKept, numEdges, System.currentTimeMillis() - start});
+		return sparse;
+	}
+
+	private double getScore(FastByIDMap<FastByIDMap<Long>> counts, long i, long j, long count) {
+		if (mRanking == Ranking.COUNT) {
+			return count;
+		}
+		return count / Math.sqrt((double) getSelfCount(counts, i) * getSelfCount(counts, j));
+	}
+
+	private static long getSelfCount(FastByIDMap<FastByIDMap<Long>> counts, long i) {
+		FastByIDMap<Long> column = counts.get(i);
+		Long count = column == null ? null : column.get(i);
+		return count == null ? 1 : count;
+	}
+
+	/**
+	 * @return number of edges of the counts, the self edges included
+	 */
+	public static long getNumEdges(FastByIDMap<FastByIDMap<Long>> counts) {
+		long numEdges = 0;
+		Iterator<Long> it_i = counts.keySetIterator();
+		while (it_i.hasNext()) {
+			numEdges += counts.get(it_i.next()).size();
+		}
+		return numEdges;
+	}
+
+	/**
+	 * @return the options changing the result, for snapshot fingerprints
+	 */
+	@Override
+	public String toString() {
+		return "neighbors=" + mMaxNeighbors + ",minCount=" + mMinCount + ",ranking=" + mRanking;
+	}
+}
@@ -0,0 +1,121 @@
+package com.msiiplab.recsys.rwr;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+
+/**
+ * A block of column vectors over the dense indices of an {@link ItemIndex},
+ * stored item-major: entry (i, b) is at mValues[i * width + b], so one row of
+ * a sparse matrix product touches all columns of an item at once.
+ */
+public class DenseColumnBlock {
+	private static final float sLoadFactor = 2f;
+	private final ItemIndex mItemIndex;
+	private final int mWidth;
+	private final double[] mValues;
+
+	public DenseColumnBlock(ItemIndex itemIndex, int width) {
+		mItemIndex = itemIndex;
+		mWidth = width;
+		mValues = new double[itemIndex.size() * width];
+	}
+
+	public ItemIndex getItemIndex() {
+		return mItemIndex;
+	}
+
+	public int getWidth() {
+		return mWidth;
+	}
+
+	/**
+	 * @return the backing array, for matrix kernels
+	 */
+	public double[] getValues() {
+		return mValues;
+	}
+
+	public DenseColumnBlock fill(double value) {
+		Arrays.fill(mValues, value);
+		return this;
+	}
+
+	public DenseColumnBlock fill(int b, double value) {
+		for (int i=b; i<mValues.length; i+=mWidth) {
+			mValues[i] = value;
+		}
+		return this;
+	}
+
+	// in place copy of a sparse vector into column b, unknown items are dropped
+	public DenseColumnBlock assign(int b, final FastByIDMap<Double> vector) {
+		for (int i=b; i<mValues.length; i+=mWidth) {
+			mValues[i] = 0.0;
+		}
+		Iterator<Long> ids = vector.keySetIterator();
+		while (ids.hasNext()) {
+			long id = ids.next();
+			int index = mItemIndex.indexOf(id);
+			if (index >= 0) {
+				mValues[index * mWidth + b] = vector.get(id);
+			}
+		}
+		return this;
+	}
+
+	// in place this = beta*this + a*x
+	public DenseColumnBlock scaleAndAxpy(double beta, double a, final DenseColumnBlock x) {
+		double[] values = x.mValues;
+		for (int i=0; i<mValues.length; i++) {
+			mValues[i] = beta * mValues[i] + a * values[i];
+		}
+		return this;
+	}
+
+	// in place column b = column b + a*x for every b
+	public DenseColumnBlock axpy(double a, final DenseColumnVector x) {
+		double[] values = x.getValues();
+		for (int i=0; i<values.length; i++) {
+			double value = a * values[i];
+			for (int b=0; b<mWidth; b++) {
+				mValues[i * mWidth + b] += value;
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * @param distance receives the L1 norm of column b of this - x
+	 */
+	public void l1Distance(final DenseColumnBlock x, double[] distance) {
+		double[] values = x.mValues;
+		Arrays.fill(distance, 0, mWidth, 0.0);
+		for (int i=0; i<mValues.length; i+=mWidth) {
+			for (int b=0; b<mWidth; b++) {
+				distance[b] += Math.abs(mValues[i+b] - values[i+b]);
+			}
+		}
+	}
+
+	/**
+	 * @return sparse copy of column b holding the non-zero entries
+	 */
+	public FastByIDMap<Double> toFastByIDMap(int b) {
+		int numNonZeros = 0;
+		for (int i=b; i<mValues.length; i+=mWidth) {
+			if (mValues[i] != 0.0) {
+				numNonZeros ++;
+			}
+		}
+		FastByIDMap<Double> vector = new FastByIDMap<Double>(numNonZeros, sLoadFactor);
+		for (int i=0; i<mItemIndex.size(); i++) {
+			double value = mValues[i * mWidth + b];
+			if (value != 0.0) {
+				vector.put(mItemIndex.getItemID(i), value);
+			}
+		}
+		return vector;
+	}
+}
@@ -0,0 +1,150 @@
+package com.msiiplab.recsys.rwr;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+
+/**
+ * Column vector backed by a double[] over the dense indices of an {@link ItemIndex}.
+ * All operations are in place and allocation free.
+ */
+public class DenseColumnVector {
+	private static final float sLoadFactor = 2f;
+	private final ItemIndex mItemIndex;
+	private final double[] mValues;
+
+	public DenseColumnVector(ItemIndex itemIndex) {
+		mItemIndex = itemIndex;
+		mValues = new double[itemIndex.size()];
+	}
+
+	public ItemIndex getItemIndex() {
+		return mItemIndex;
+	}
+
+	public int size() {
+		return mValues.length;
+	}
+
+	public double get(int index) {
+		return mValues[index];
+	}
+
+	public void set(int index, double value) {
+		mValues[index] = value;
+	}
+
+	/**
+	 * @return the backing array, for matrix kernels
+	 */
+	public double[] getValues() {
+		return mValues;
+	}
+
+	public DenseColumnVector fill(double value) {
+		Arrays.fill(mValues, value);
+		return this;
+	}
+
+	// in place copy, both vectors must share the same item index
+	public DenseColumnVector assign(final DenseColumnVector vector) {
+		System.arraycopy(vector.mValues, 0, mValues, 0, mValues.length);
+		return this;
+	}
+
+	// in place copy of a sparse vector, unknown items are dropped
+	public DenseColumnVector assign(final FastByIDMap<Double> vector) {
+		Arrays.fill(mValues, 0.0);
+		Iterator<Long> ids = vector.keySetIterator();
+		while (ids.hasNext()) {
+			long id = ids.next();
+			int index = mItemIndex.indexOf(id);
+			if (index >= 0) {
+				mValues[index] = vector.get(id);
+			}
+		}
+		return this;
+	}
+
+	// in place multiply a number
+	public DenseColumnVector scale(double beta) {
+		for (int i=0; i<mValues.length; i++) {
+			mValues[i] *= beta;
+		}
+		return this;
+	}
+
+	// in place this = this + a*x
+	public DenseColumnVector axpy(double a, final DenseColumnVector x) {
+		double[] values = x.mValues;
+		for (int i=0; i<mValues.length; i++) {
+			mValues[i] += a * values[i];
+		}
+		return this;
+	}
+
+	// in place this = beta*this + a*x
+	public DenseColumnVector scaleAndAxpy(double beta, double a, final DenseColumnVector x) {
+		double[] values = x.mValues;
+		for (int i=0; i<mValues.length; i++) {
+			mValues[i] = beta * mValues[i] + a * values[i];
+		}
+		return this;
+	}
+
+	/**
+	 * @return L1 norm of this
+	 */
+	public double l1Norm() {
+		double norm = 0.0;
+		for (int i=0; i<mValues.length; i++) {
+			norm += Math.abs(mValues[i]);
+		}
+		return norm;
+	}
+
+	/**
+	 * @return number of non-zero entries
+	 */
+	public int getNumNonZeros() {
+		int numNonZeros = 0;
+		for (int i=0; i<mValues.length; i++) {
+			if (mValues[i] != 0.0) {
+				numNonZeros ++;
+			}
+		}
+		return numNonZeros;
+	}
+
+	/**
+	 * @return L1 norm of this - x
+	 */
+	public double l1Distance(final DenseColumnVector x) {
+		double[] values = x.mValues;
+		double distance = 0.0;
+		for (int i=0; i<mValues.length; i++) {
+			distance += Math.abs(mValues[i] - values[i]);
+		}
+		return distance;
+	}
+
+	/**
+	 * @return sparse copy holding the non-zero entries
+	 */
+	public FastByIDMap<Double> toFastByIDMap() {
+		int numNonZeros = 0;
+		for (int i=0; i<mValues.length; i++) {
+			if (mValues[i] != 0.0) {
+				numNonZeros ++;
+			}
+		}
+		FastByIDMap<Double> vector = new FastByIDMap<Double>(numNonZeros, sLoadFactor);
+		for (int i=0; i<mValues.length; i++) {
+			if (mValues[i] != 0.0) {
+				vector.put(mItemIndex.getItemID(i), mValues[i]);
+			}
+		}
+		return vector;
+	}
+}
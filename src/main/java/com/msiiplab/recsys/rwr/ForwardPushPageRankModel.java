@@ -0,0 +1,253 @@
+package com.msiiplab.recsys.rwr;
+
+import java.util.Iterator;
+
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.eval.RecommenderBuilder;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.RunningAverage;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Approximate personalized PageRank by local (forward) push.
+ *
+ * Starting from residual r = P (the normalized preference of the user), an
+ * item u with r(u) > epsilon * outDegree(u) keeps (1-a)*r(u) as its score and
+ * pushes a*r(u) to its out-going edges. The total work is bounded by
+ * 1 / (epsilon * (1-a)) edge updates, independent of the size of the graph.
+ */
+public class ForwardPushPageRankModel extends PersonalizedPageRankModel {
+
+	public static final Logger log = LoggerFactory.getLogger(ForwardPushPageRankModel.class);
+
+	private final CSRStochasticMatrix mOutEdges;
+	private final double mEpsilon;
+	private final ThreadLocal<PushBuffers> mPushBuffers;
+	private final RunningAverage mPushes;
+
+	protected ForwardPushPageRankModel(DataModel dataModel, RandomWalkParameters parameters)
+			throws TasteException {
+		super(dataModel, parameters);
+		if (!(getTransitionMatrix() instanceof CSRStochasticMatrix)) {
+			throw new TasteException("forward push needs a CSRStochasticMatrix of double weights");
+		}
+		mOutEdges = ((CSRStochasticMatrix) getTransitionMatrix()).transpose();
+		mEpsilon = parameters.getEpsilon();
+		mPushBuffers = new ThreadLocal<PushBuffers>();
+		mPushes = new GLRunningAverage();
+	}
+
+	@Override
+	protected FastByIDMap<Double> getPreferencesForUser(long userID) throws TasteException {
+		try {
+			FastByIDMap<Double> PersonalizedRank = getPersonalizedRank(userID);
+			PushBuffers buffers = getPushBuffers();
+			int pushes = push(buffers, PersonalizedRank);
+			mPushes.addDatum(pushes);
+			log.debug("Pushed {} times for user {}", pushes, userID);
+			return buffers.collect();
+		} catch (NoSuchUserException e) {
+			return new FastByIDMap<Double>();
+		}
+	}
+
+	// users are pushed one by one, the block walk of the exact model does not apply
+	@Override
+	protected FastByIDMap<FastByIDMap<Double>> getPreferencesForUsers(long[] userIDs) throws TasteException {
+		FastByIDMap<FastByIDMap<Double>> preferences = new FastByIDMap<FastByIDMap<Double>>(userIDs.length);
+		for (long userID: userIDs) {
+			preferences.put(userID, getPreferencesForUser(userID));
+		}
+		return preferences;
+	}
+
+	// the out-edges are built once from the initial matrix
+	@Override
+	protected boolean isUpdatable() {
+		return false;
+	}
+
+	/**
+	 * @param PersonalizedRank restart distribution, summing to 1
+	 * @param pushes where the number of pushes is recorded, not the pushes per user
+	 * @return approximate personalized PageRank of it
+	 */
+	protected FastByIDMap<Double> push(FastByIDMap<Double> PersonalizedRank, RunningAverage pushes) {
+		PushBuffers buffers = getPushBuffers();
+		pushes.addDatum(push(buffers, PersonalizedRank));
+		return buffers.collect();
+	}
+
+	private int push(PushBuffers buffers, FastByIDMap<Double> PersonalizedRank) {
+		ItemIndex itemIndex = mOutEdges.getItemIndex();
+		int[] rowPtr = mOutEdges.getRowPtr();
+		int[] colIdx = mOutEdges.getColIdx();
+		double[] weights = mOutEdges.getWeights();
+		double alpha = getAlpha();
+		double[] estimate = buffers.mEstimate;
+		double[] residual = buffers.mResidual;
+
+		Iterator<Long> it_item = PersonalizedRank.keySetIterator();
+		while (it_item.hasNext()) {
+			long itemID = it_item.next();
+			int i = itemIndex.indexOf(itemID);
+			if (i >= 0) {
+				buffers.touch(i);
+				residual[i] += PersonalizedRank.get(itemID);
+				if (residual[i] > mEpsilon * (rowPtr[i+1] - rowPtr[i])) {
+					buffers.offer(i);
+				}
+			}
+		}
+
+		int pushes = 0;
+		while (!buffers.isEmpty()) {
+			int u = buffers.poll();
+			double r = residual[u];
+			residual[u] = 0.0;
+			estimate[u] += (1.0-alpha) * r;
+			double mass = alpha * r;
+			for (int k=rowPtr[u]; k<rowPtr[u+1]; k++) {
+				int v = colIdx[k];
+				buffers.touch(v);
+				residual[v] += mass * weights[k];
+				if (residual[v] > mEpsilon * (rowPtr[v+1] - rowPtr[v])) {
+					buffers.offer(v);
+				}
+			}
+			pushes ++;
+		}
+		return pushes;
+	}
+
+	private PushBuffers getPushBuffers() {
+		PushBuffers buffers = mPushBuffers.get();
+		if (buffers == null) {
+			buffers = new PushBuffers(mOutEdges.getItemIndex());
+			mPushBuffers.set(buffers);
+		}
+		return buffers;
+	}
+
+	// per thread state, only the touched entries are visited and reset after a user
+	private static class PushBuffers {
+		private final ItemIndex mItemIndex;
+		private final double[] mEstimate;
+		private final double[] mResidual;
+		private final int[] mQueue;
+		private final boolean[] mInQueue;
+		private final int[] mTouched;
+		private final boolean[] mIsTouched;
+		private int mHead;
+		private int mQueueSize;
+		private int mNumTouched;
+
+		public PushBuffers(ItemIndex itemIndex) {
+			int size = itemIndex.size();
+			mItemIndex = itemIndex;
+			mEstimate = new double[size];
+			mResidual = new double[size];
+			mQueue = new int[size];
+			mInQueue = new boolean[size];
+			mTouched = new int[size];
+			mIsTouched = new boolean[size];
+		}
+
+		public void touch(int i) {
+			if (!mIsTouched[i]) {
+				mIsTouched[i] = true;
+				mTouched[mNumTouched++] = i;
+			}
+		}
+
+		public void offer(int i) {
+			if (!mInQueue[i]) {
+				mInQueue[i] = true;
+				mQueue[(mHead + mQueueSize) % mQueue.length] = i;
+				mQueueSize ++;
+			}
+		}
+
+		public boolean isEmpty() {
+			return mQueueSize == 0;
+		}
+
+		public int poll() {
+			int i = mQueue[mHead];
+			mHead = (mHead + 1) % mQueue.length;
+			mQueueSize --;
+			mInQueue[i] = false;
+			return i;
+		}
+
+		/**
+		 * @return the estimates of touched items, and reset for the next user
+		 */
+		public FastByIDMap<Double> collect() {
+			FastByIDMap<Double> rank = new FastByIDMap<Double>(mNumTouched);
+			for (int t=0; t<mNumTouched; t++) {
+				int i = mTouched[t];
+				if (mEstimate[i] > 0) {
+					rank.put(mItemIndex.getItemID(i), mEstimate[i]);
+				}
+				mEstimate[i] = 0.0;
+				mResidual[i] = 0.0;
+				mIsTouched[i] = false;
+			}
+			mNumTouched = 0;
+			mHead = 0;
+			return rank;
+		}
+	}
+
+	/**
+	 * @return number of pushes per user so far
+	 */
+	public RunningAverage getPushes() {
+		return mPushes;
+	}
+
+	@Override
+	public String getStatistics() {
+		return "users pushed=" + mPushes.getCount() + ", pushes per user=" + mPushes.getAverage();
+	}
+
+	/**
+	 * Pushes walk the out-going edges of the double weights, see 
+	 * {@link #checkWeightStorage(RandomWalkParameters)}
+	 */
+	public static ForwardPushPageRankModel getInstance(DataModel dataModel, RandomWalkParameters parameters) {
+		checkWeightStorage(parameters);
+		try {
+			return new ForwardPushPageRankModel(dataModel, parameters);
+		} catch (TasteException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * @throws IllegalArgumentException when the weights are not stored as double
+	 */
+	static void checkWeightStorage(RandomWalkParameters parameters) {
+		Preconditions.checkArgument(parameters.getWeightStorage() == WeightStorage.DOUBLE,
+				"forward push needs double transition weights, not %s", parameters.getWeightStorage());
+	}
+
+	public static RecommenderBuilder getRecommenderBuilder(final RandomWalkParameters parameters) {
+		return new RecommenderBuilder() {
+			@Override
+			public Recommender buildRecommender(DataModel dataModel)
+					throws TasteException {
+				return new PersonalizedPageRankRecommender( dataModel,
+						ForwardPushPageRankModel.getInstance(dataModel, parameters));
+			}
+		};
+	}
+}
@@ -0,0 +1,295 @@
+package com.msiiplab.recsys.rwr;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.eval.RecommenderBuilder;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.RunningAverage;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Personalized PageRank served from a precomputed basis.
+ *
+ * PPR is linear in the restart distribution, so the rank of a user is the
+ * preference weighted sum of the ranks restarting at each single item. Those
+ * are computed once by forward push, truncated to the top basisSize entries,
+ * and kept in a memory mapped file laid out as
+ *
+ * 		int magic, int version, int numItems, int basisSize,
+ * 		long offsets[2*numItems] (first and end entry of each item),
+ * 		(int index, float value) entries[]
+ *
+ * so that a user only costs a merge of a few sparse vectors. The entries are
+ * appended chunk by chunk as they are computed, so only the offsets are held
+ * on the heap while the file is written. The file belongs to the model, it
+ * is deleted by {@link #close()} or else when the JVM exits.
+ */
+public class ItemBasisPageRankModel extends ForwardPushPageRankModel implements Closeable {
+
+	public static final Logger log = LoggerFactory.getLogger(ItemBasisPageRankModel.class);
+
+	private static final int sMagic = 0x50505242; // "PPRB"
+	private static final int sVersion = 2;
+	private static final int sHeaderSize = 16;
+	private static final int sEntrySize = 8;
+	private static final int sItemsPerTask = 256;
+	private static final float sLoadFactor = 2f;
+
+	private final int mBasisSize;
+	private final File mBasisFile;
+	private final MappedByteBuffer mBasis;
+	private final int mEntriesStart;
+	// pushes per item of the build, and basis entries merged per user served
+	private final RunningAverage mBuildPushes;
+	private final long mBuildTime;
+	private final RunningAverage mMergedEntries;
+
+	protected ItemBasisPageRankModel(DataModel dataModel, RandomWalkParameters parameters)
+			throws TasteException {
+		super(dataModel, parameters);
+		mBasisSize = parameters.getBasisSize();
+		mEntriesStart = sHeaderSize + 16 * getTransitionMatrix().getSize();
+		mBuildPushes = new GLRunningAverage();
+		mMergedEntries = new GLRunningAverage();
+		try {
+			mBasisFile = File.createTempFile("ppr-basis", ".bin");
+			mBasisFile.deleteOnExit();
+			long start = System.currentTimeMillis();
+			writeBasis(mBasisFile);
+			mBasis = mapBasis(mBasisFile);
+			mBuildTime = System.currentTimeMillis() - start;
+			log.info("Computed basis of {} items in {} ms, {} bytes", new Object[] {
+					getTransitionMatrix().getSize(), mBuildTime, mBasisFile.length()});
+		} catch (IOException e) {
+			throw new TasteException(e);
+		}
+	}
+
+	// one truncated push per item, items split across the shared pool, each
+	// chunk appends its entries to the file as soon as it is done
+	private void writeBasis(File file) throws IOException, TasteException {
+		final ItemIndex itemIndex = getTransitionMatrix().getItemIndex();
+		final int numItems = itemIndex.size();
+		final long[] offsets = new long[2 * numItems];
+		final AtomicLong numEntries = new AtomicLong();
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			final FileChannel channel = raf.getChannel();
+			List<Callable<Void>> callableList = new ArrayList<Callable<Void>>();
+			for (int from=0; from<numItems; from+=sItemsPerTask) {
+				final int start = from;
+				final int end = Math.min(from + sItemsPerTask, numItems);
+				callableList.add(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						FastByIDMap<Double> restart = new FastByIDMap<Double>(1);
+						BasisVector[] chunk = new BasisVector[end - start];
+						int size = 0;
+						for (int i=start; i<end; i++) {
+							restart.clear();
+							restart.put(itemIndex.getItemID(i), 1.0);
+							chunk[i-start] = new BasisVector(itemIndex, push(restart, mBuildPushes), mBasisSize);
+							size += chunk[i-start].mIndices.length;
+						}
+						long offset = numEntries.getAndAdd(size);
+						ByteBuffer buffer = ByteBuffer.allocate(size * sEntrySize);
+						long position = mEntriesStart + offset * sEntrySize;
+						for (int i=start; i<end; i++) {
+							BasisVector vector = chunk[i-start];
+							offsets[2*i] = offset;
+							for (int k=0; k<vector.mIndices.length; k++) {
+								buffer.putInt(vector.mIndices[k]);
+								buffer.putFloat(vector.mValues[k]);
+							}
+							offset += vector.mIndices.length;
+							offsets[2*i+1] = offset;
+						}
+						buffer.flip();
+						write(channel, buffer, position);
+						return null;
+					}
+				});
+			}
+			try {
+				ComputePool.getInstance().invokeAll(callableList);
+			} catch (InterruptedException e) {
+				throw new TasteException(e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				}
+				throw new TasteException(e.getCause());
+			}
+			ByteBuffer header = ByteBuffer.allocate(mEntriesStart);
+			header.putInt(sMagic);
+			header.putInt(sVersion);
+			header.putInt(numItems);
+			header.putInt(mBasisSize);
+			for (long offset: offsets) {
+				header.putLong(offset);
+			}
+			header.flip();
+			write(channel, header, 0);
+		} finally {
+			raf.close();
+		}
+	}
+
+	// positional writes, safe from several threads at disjoint positions
+	private static void write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+	}
+
+	private static MappedByteBuffer mapBasis(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("basis file over 2GB, lower the basis size");
+			}
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.getInt(0) != sMagic || buffer.getInt(4) != sVersion) {
+				throw new IOException("not a basis file: " + file);
+			}
+			return buffer;
+		} finally {
+			// the mapping stays valid after the channel is closed
+			raf.close();
+		}
+	}
+
+	@Override
+	protected FastByIDMap<Double> getPreferencesForUser(long userID) throws TasteException {
+		try {
+			FastByIDMap<Double> PersonalizedRank = getPersonalizedRank(userID);
+			ItemIndex itemIndex = getTransitionMatrix().getItemIndex();
+			// absolute reads only, so the mapped buffer is shared by all threads
+			ByteBuffer basis = mBasis;
+			FastByIDMap<Double> rank = new FastByIDMap<Double>(PersonalizedRank.size() * mBasisSize, sLoadFactor);
+			long merged = 0;
+			Iterator<Long> it_item = PersonalizedRank.keySetIterator();
+			while (it_item.hasNext()) {
+				long itemID = it_item.next();
+				int i = itemIndex.indexOf(itemID);
+				if (i < 0) {
+					continue;
+				}
+				double weight = PersonalizedRank.get(itemID);
+				long start = basis.getLong(sHeaderSize + 16 * i);
+				long end = basis.getLong(sHeaderSize + 16 * i + 8);
+				merged += end - start;
+				for (long k=start; k<end; k++) {
+					int position = (int) (mEntriesStart + k * sEntrySize);
+					long j = itemIndex.getItemID(basis.getInt(position));
+					double value = weight * basis.getFloat(position + 4);
+					Double old = rank.get(j);
+					rank.put(j, old == null ? value : old + value);
+				}
+			}
+			mMergedEntries.addDatum(merged);
+			return rank;
+		} catch (NoSuchUserException e) {
+			return new FastByIDMap<Double>();
+		}
+	}
+
+	/**
+	 * @return the memory mapped basis file
+	 */
+	public File getBasisFile() {
+		return mBasisFile;
+	}
+
+	/**
+	 * Deletes the basis file, the mapping of it stays valid on POSIX systems 
+	 * until the model is collected, elsewhere the file is left to the JVM exit
+	 */
+	@Override
+	public void close() {
+		if (mBasisFile.exists() && !mBasisFile.delete()) {
+			log.debug("Could not delete basis file {}, left to exit", mBasisFile);
+		}
+	}
+
+	/**
+	 * Reports the basis build apart from serving, pushes are only done by the build
+	 */
+	@Override
+	public String getStatistics() {
+		return "basis of " + getTransitionMatrix().getSize() + " items built in " + mBuildTime 
+				+ " ms, pushes per item=" + mBuildPushes.getAverage() + "; users served=" 
+				+ mMergedEntries.getCount() + ", basis entries merged per user=" + mMergedEntries.getAverage();
+	}
+
+	// top basisSize entries of a push result, by item index
+	private static class BasisVector {
+		private final int[] mIndices;
+		private final float[] mValues;
+
+		public BasisVector(ItemIndex itemIndex, FastByIDMap<Double> rank, int basisSize) {
+			List<Map.Entry<Long, Double>> entries = new ArrayList<Map.Entry<Long, Double>>(rank.entrySet());
+			if (entries.size() > basisSize) {
+				Collections.sort(entries, new Comparator<Map.Entry<Long, Double>>() {
+					@Override
+					public int compare(Map.Entry<Long, Double> o1, Map.Entry<Long, Double> o2) {
+						return Double.compare(o2.getValue(), o1.getValue());
+					}
+				});
+				entries = entries.subList(0, basisSize);
+			}
+			mIndices = new int[entries.size()];
+			for (int k=0; k<mIndices.length; k++) {
+				mIndices[k] = itemIndex.indexOf(entries.get(k).getKey());
+			}
+			Arrays.sort(mIndices);
+			mValues = new float[mIndices.length];
+			for (int k=0; k<mIndices.length; k++) {
+				mValues[k] = rank.get(itemIndex.getItemID(mIndices[k])).floatValue();
+			}
+		}
+	}
+
+	public static ItemBasisPageRankModel getInstance(DataModel dataModel, RandomWalkParameters parameters) {
+		checkWeightStorage(parameters);
+		try {
+			return new ItemBasisPageRankModel(dataModel, parameters);
+		} catch (TasteException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	public static RecommenderBuilder getRecommenderBuilder(final RandomWalkParameters parameters) {
+		return new RecommenderBuilder() {
+			@Override
+			public Recommender buildRecommender(DataModel dataModel)
+					throws TasteException {
+				return new PersonalizedPageRankRecommender( dataModel,
+						ItemBasisPageRankModel.getInstance(dataModel, parameters));
+			}
+		};
+	}
+}
@@ -0,0 +1,64 @@
+package com.msiiplab.recsys.rwr;
+
+import java.util.Arrays;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+
+/**
+ * Dictionary between item IDs and dense int indices 0..size-1,
+ * indices follow ascending item ID order.
+ */
+public class ItemIndex {
+
+	private final long[] mItemIDs;
+	private final FastByIDMap<Integer> mIndex;
+
+	public ItemIndex(long[] itemIDs) {
+		mItemIDs = itemIDs.clone();
+		Arrays.sort(mItemIDs);
+		mIndex = new FastByIDMap<Integer>(mItemIDs.length);
+		for (int i=0; i<mItemIDs.length; i++) {
+			mIndex.put(mItemIDs[i], i);
+		}
+	}
+
+	public static ItemIndex getInstance(DataModel dataModel) throws TasteException {
+		long[] itemIDs = new long[dataModel.getNumItems()];
+		int num = 0;
+		LongPrimitiveIterator it_item = dataModel.getItemIDs();
+		while (it_item.hasNext()) {
+			itemIDs[num++] = it_item.nextLong();
+		}
+		return new ItemIndex(Arrays.copyOf(itemIDs, num));
+	}
+
+	public int size() {
+		return mItemIDs.length;
+	}
+
+	/**
+	 * @return dense index of itemID, or -1 if the item is unknown
+	 */
+	public int indexOf(long itemID) {
+		Integer index = mIndex.get(itemID);
+		if (index == null) {
+			return -1;
+		} else {
+			return index;
+		}
+	}
+
+	public long getItemID(int index) {
+		return mItemIDs[index];
+	}
+
+	/**
+	 * @return the sorted item IDs, must not be modified
+	 */
+	public long[] getItemIDs() {
+		return mItemIDs;
+	}
+}
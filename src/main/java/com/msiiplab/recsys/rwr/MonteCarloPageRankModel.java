@@ -0,0 +1,269 @@
+package com.msiiplab.recsys.rwr;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.eval.RecommenderBuilder;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.RunningAverage;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.apache.mahout.math.list.IntArrayList;
+import org.apache.mahout.math.map.OpenIntIntHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Monte Carlo estimate of personalized PageRank.
+ *
+ * Each walk starts at an item drawn from the user's normalized preferences,
+ * follows an edge with probability a and stops otherwise. The share of walks
+ * ending at an item estimates its score. Neighbours are drawn in O(1) from a
+ * per item alias table, so the cost per user only depends on the number of
+ * walks, which are split across the shared {@link ComputePool}.
+ */
+public class MonteCarloPageRankModel extends PersonalizedPageRankModel {
+
+	public static final Logger log = LoggerFactory.getLogger(MonteCarloPageRankModel.class);
+
+	private static final int sWalksPerTask = 1024;
+
+	private final int[] mRowPtr;
+	private final int[] mColIdx;
+	// alias table: slot k of row u keeps mColIdx[k] with mAliasProb[k], mAlias[k] otherwise
+	private final double[] mAliasProb;
+	private final int[] mAlias;
+	private final int mNumWalks;
+	private final RunningAverage mReachedItems;
+
+	protected MonteCarloPageRankModel(DataModel dataModel, RandomWalkParameters parameters)
+			throws TasteException {
+		super(dataModel, parameters);
+		if (!(getTransitionMatrix() instanceof CSRStochasticMatrix)) {
+			throw new TasteException("Monte Carlo walks need a CSRStochasticMatrix of double weights");
+		}
+		CSRStochasticMatrix outEdges = ((CSRStochasticMatrix) getTransitionMatrix()).transpose();
+		mRowPtr = outEdges.getRowPtr();
+		mColIdx = outEdges.getColIdx();
+		mAliasProb = new double[mColIdx.length];
+		mAlias = new int[mColIdx.length];
+		buildAliasTables(outEdges.getWeights());
+		mNumWalks = parameters.getNumWalks();
+		mReachedItems = new GLRunningAverage();
+	}
+
+	// Vose's alias method, row by row
+	private void buildAliasTables(double[] weights) {
+		int maxRowSize = 0;
+		for (int u=0; u<mRowPtr.length-1; u++) {
+			maxRowSize = Math.max(maxRowSize, mRowPtr[u+1] - mRowPtr[u]);
+		}
+		double[] scaled = new double[maxRowSize];
+		int[] small = new int[maxRowSize];
+		int[] large = new int[maxRowSize];
+		for (int u=0; u<mRowPtr.length-1; u++) {
+			int start = mRowPtr[u];
+			int n = mRowPtr[u+1] - start;
+			double sum = 0.0;
+			for (int k=0; k<n; k++) {
+				sum += weights[start+k];
+			}
+			int numSmall = 0;
+			int numLarge = 0;
+			for (int k=0; k<n; k++) {
+				scaled[k] = weights[start+k] * n / sum;
+				if (scaled[k] < 1.0) {
+					small[numSmall++] = k;
+				} else {
+					large[numLarge++] = k;
+				}
+			}
+			while (numSmall > 0 && numLarge > 0) {
+				int s = small[--numSmall];
+				int l = large[--numLarge];
+				mAliasProb[start+s] = scaled[s];
+				mAlias[start+s] = mColIdx[start+l];
+				scaled[l] = (scaled[l] + scaled[s]) - 1.0;
+				if (scaled[l] < 1.0) {
+					small[numSmall++] = l;
+				} else {
+					large[numLarge++] = l;
+				}
+			}
+			// left overs are 1 up to rounding
+			while (numLarge > 0) {
+				int l = large[--numLarge];
+				mAliasProb[start+l] = 1.0;
+				mAlias[start+l] = mColIdx[start+l];
+			}
+			while (numSmall > 0) {
+				int s = small[--numSmall];
+				mAliasProb[start+s] = 1.0;
+				mAlias[start+s] = mColIdx[start+s];
+			}
+		}
+	}
+
+	@Override
+	protected FastByIDMap<Double> getPreferencesForUser(long userID) throws TasteException {
+		try {
+			FastByIDMap<Double> PersonalizedRank = getPersonalizedRank(userID);
+			ItemIndex itemIndex = getTransitionMatrix().getItemIndex();
+
+			// cumulative distribution of the starting item
+			int[] starts = new int[PersonalizedRank.size()];
+			double[] cumulative = new double[PersonalizedRank.size()];
+			int numStarts = 0;
+			double sum = 0.0;
+			Iterator<Long> it_item = PersonalizedRank.keySetIterator();
+			while (it_item.hasNext()) {
+				long itemID = it_item.next();
+				int i = itemIndex.indexOf(itemID);
+				if (i >= 0) {
+					sum += PersonalizedRank.get(itemID);
+					starts[numStarts] = i;
+					cumulative[numStarts] = sum;
+					numStarts ++;
+				}
+			}
+			if (numStarts == 0) {
+				return new FastByIDMap<Double>();
+			}
+
+			starts = Arrays.copyOf(starts, numStarts);
+			cumulative = Arrays.copyOf(cumulative, numStarts);
+			List<Callable<OpenIntIntHashMap>> callableList = new ArrayList<Callable<OpenIntIntHashMap>>();
+			for (int walks=0; walks<mNumWalks; walks+=sWalksPerTask) {
+				callableList.add(new WalkerCallable(starts, cumulative, Math.min(sWalksPerTask, mNumWalks-walks)));
+			}
+
+			OpenIntIntHashMap counts = new OpenIntIntHashMap();
+			for (OpenIntIntHashMap partial: ComputePool.getInstance().invokeAll(callableList)) {
+				IntArrayList keys = partial.keys();
+				for (int t=0; t<keys.size(); t++) {
+					int i = keys.getQuick(t);
+					counts.adjustOrPutValue(i, partial.get(i), partial.get(i));
+				}
+			}
+
+			FastByIDMap<Double> rank = new FastByIDMap<Double>(counts.size());
+			IntArrayList keys = counts.keys();
+			for (int t=0; t<keys.size(); t++) {
+				int i = keys.getQuick(t);
+				rank.put(itemIndex.getItemID(i), (double) counts.get(i) / mNumWalks);
+			}
+			mReachedItems.addDatum(rank.size());
+			log.debug("Simulated {} walks for user {}, reached {} items",
+					new Object[] {mNumWalks, userID, rank.size()});
+			return rank;
+		} catch (NoSuchUserException e) {
+			return new FastByIDMap<Double>();
+		} catch (InterruptedException e) {
+			throw new TasteException(e);
+		} catch (ExecutionException e) {
+			throw new TasteException(e.getCause());
+		}
+	}
+
+	// users are simulated one by one, the block walk of the exact model does not apply
+	@Override
+	protected FastByIDMap<FastByIDMap<Double>> getPreferencesForUsers(long[] userIDs) throws TasteException {
+		FastByIDMap<FastByIDMap<Double>> preferences = new FastByIDMap<FastByIDMap<Double>>(userIDs.length);
+		for (long userID: userIDs) {
+			preferences.put(userID, getPreferencesForUser(userID));
+		}
+		return preferences;
+	}
+
+	// the alias tables are built once from the initial matrix
+	@Override
+	protected boolean isUpdatable() {
+		return false;
+	}
+
+	private class WalkerCallable implements Callable<OpenIntIntHashMap> {
+		private final int[] mStarts;
+		private final double[] mCumulative;
+		private final int mWalks;
+
+		public WalkerCallable(int[] starts, double[] cumulative, int walks) {
+			mStarts = starts;
+			mCumulative = cumulative;
+			mWalks = walks;
+		}
+
+		@Override
+		public OpenIntIntHashMap call() throws Exception {
+			Random random = ThreadLocalRandom.current();
+			double alpha = getAlpha();
+			double total = mCumulative[mCumulative.length-1];
+			OpenIntIntHashMap counts = new OpenIntIntHashMap();
+			for (int w=0; w<mWalks; w++) {
+				int s = Arrays.binarySearch(mCumulative, random.nextDouble() * total);
+				if (s < 0) {
+					s = -s - 1;
+				}
+				int u = mStarts[Math.min(s, mStarts.length-1)];
+				while (random.nextDouble() < alpha) {
+					int n = mRowPtr[u+1] - mRowPtr[u];
+					if (n == 0) {
+						break;
+					}
+					int k = mRowPtr[u] + random.nextInt(n);
+					u = random.nextDouble() < mAliasProb[k] ? mColIdx[k] : mAlias[k];
+				}
+				counts.adjustOrPutValue(u, 1, 1);
+			}
+			return counts;
+		}
+	}
+
+	/**
+	 * @return number of items reached per user so far
+	 */
+	public RunningAverage getReachedItems() {
+		return mReachedItems;
+	}
+
+	@Override
+	public String getStatistics() {
+		return "users simulated=" + mReachedItems.getCount() + ", walks per user=" + mNumWalks
+				+ ", items reached per user=" + mReachedItems.getAverage();
+	}
+
+	/**
+	 * @throws IllegalArgumentException when the weights are not stored as 
+	 * 		double, the alias tables are built from them
+	 */
+	public static MonteCarloPageRankModel getInstance(DataModel dataModel, RandomWalkParameters parameters) {
+		Preconditions.checkArgument(parameters.getWeightStorage() == WeightStorage.DOUBLE,
+				"Monte Carlo walks need double transition weights, not %s", parameters.getWeightStorage());
+		try {
+			return new MonteCarloPageRankModel(dataModel, parameters);
+		} catch (TasteException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	public static RecommenderBuilder getRecommenderBuilder(final RandomWalkParameters parameters) {
+		return new RecommenderBuilder() {
+			@Override
+			public Recommender buildRecommender(DataModel dataModel)
+					throws TasteException {
+				return new PersonalizedPageRankRecommender( dataModel,
+						MonteCarloPageRankModel.getInstance(dataModel, parameters));
+			}
+		};
+	}
+}
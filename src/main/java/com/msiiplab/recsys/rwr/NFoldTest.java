@@ -3,13 +3,16 @@ package com.msiiplab.recsys.rwr;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.eval.RecommenderBuilder;
 import org.apache.mahout.cf.taste.impl.eval.GenericRecommenderIRStatsEvaluator;
+import org.apache.mahout.cf.taste.impl.common.RunningAverage;
 import org.apache.mahout.cf.taste.impl.model.file.FileDataModel;
 import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.recommender.Recommender;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -62,7 +65,115 @@ public class NFoldTest {
 		if (mFlagOutput) {
 			outputFileList = new ArrayList<File>();
 		}
+		loadDataModels(trainingDataModels, testingDataModels, outputFileList, recommenderType);
+		
+		if (outputFileList == null) {
+			GLIRStatisticsImpl stats = evaluator.evaluate(
+					builder, trainingDataModels, testingDataModels, null, at, 
+					GenericRecommenderIRStatsEvaluator.CHOOSE_THRESHOLD, 
+					1.0);
+			printStatistics(stats);
+		} else {
+			evaluator.predict(builder, trainingDataModels, testingDataModels, outputFileList);
+		}
 
+	}
+	
+	/**
+	 * Evaluates the walk for each alpha in parallel, scoring each user once for 
+	 * all alphas, see {@link PersonalizedPageRankModel#getAlphaModels(double[])}.
+	 * Folds are evaluated one at a time, so one model is kept at once.
+	 */
+	public void testAlphas(final RandomWalkParameters parameters, double[] alphas, String recommenderType, int at) 
+			throws IOException, TasteException {
+		List<DataModel> trainingDataModels = new ArrayList<DataModel>();
+		List<DataModel> testingDataModels = new ArrayList<DataModel>();
+		loadDataModels(trainingDataModels, testingDataModels, null, recommenderType);
+		GLRecommenderIRStatsEvaluator evaluator = new ParallelGLRecommenderIRStatsEvaluator();
+		
+		List<List<GLIRStatisticsImpl>> alphaStats = new ArrayList<List<GLIRStatisticsImpl>>(alphas.length);
+		for (int a=0; a<alphas.length; a++) {
+			alphaStats.add(new ArrayList<GLIRStatisticsImpl>());
+		}
+		for (int i=0; i<trainingDataModels.size(); i++) {
+			DataModel trainingDataModel = trainingDataModels.get(i);
+			PersonalizedPageRankModel model = PersonalizedPageRankModel.getInstance(trainingDataModel, parameters);
+			if (model == null) {
+				throw new TasteException("can not build the walk of fold " + i);
+			}
+			List<RecommenderModel> alphaModels = model.getAlphaModels(alphas);
+			for (int a=0; a<alphas.length; a++) {
+				log.info("fold {}, alpha {}", i, alphas[a]);
+				final RecommenderModel alphaModel = alphaModels.get(a);
+				RecommenderBuilder builder = new RecommenderBuilder() {
+					@Override
+					public Recommender buildRecommender(DataModel dataModel) throws TasteException {
+						return new PersonalizedPageRankRecommender(dataModel, alphaModel);
+					}
+				};
+				alphaStats.get(a).add(evaluator.evaluate(builder, 
+						Collections.singletonList(trainingDataModel), 
+						Collections.singletonList(testingDataModels.get(i)), null, at, 
+						GenericRecommenderIRStatsEvaluator.CHOOSE_THRESHOLD, 
+						1.0));
+			}
+		}
+		for (int a=0; a<alphas.length; a++) {
+			System.out.println("Alpha:\t" + alphas[a]);
+			printStatistics(average(alphaStats.get(a)));
+		}
+	}
+	
+	// averages over the folds, as the evaluators do
+	private static GLIRStatisticsImpl average(List<GLIRStatisticsImpl> foldStats) {
+		RunningAverage precision = new GLRunningAverage();
+		RunningAverage rPrecision = new GLRunningAverage();
+		RunningAverage recall = new GLRunningAverage();
+		RunningAverage fallOut = new GLRunningAverage();
+		RunningAverage nDCG = new GLRunningAverage();
+		RunningAverage rNDCG = new GLRunningAverage();
+		RunningAverage reach = new GLRunningAverage();
+		RunningAverage macroDOA = new GLRunningAverage();
+		RunningAverage microDOA = new GLRunningAverage();
+		RunningAverage macroInnerDOA = new GLRunningAverage();
+		RunningAverage microInnerDOA = new GLRunningAverage();
+		for (GLIRStatisticsImpl stats: foldStats) {
+			precision.addDatum(stats.getPrecision());
+			rPrecision.addDatum(stats.getRprecision());
+			recall.addDatum(stats.getRecall());
+			fallOut.addDatum(stats.getFallOut());
+			nDCG.addDatum(stats.getNormalizedDiscountedCumulativeGain());
+			rNDCG.addDatum(stats.getRndcg());
+			reach.addDatum(stats.getReach());
+			macroDOA.addDatum(stats.getMacroDegreeOfAgreement());
+			microDOA.addDatum(stats.getMicroDegreeOfAgreement());
+			macroInnerDOA.addDatum(stats.getMacroInnerDOA());
+			microInnerDOA.addDatum(stats.getMicroInnerDOA());
+		}
+		return new GLIRStatisticsImpl(precision.getAverage(), rPrecision.getAverage(), 
+				recall.getAverage(), fallOut.getAverage(), nDCG.getAverage(), rNDCG.getAverage(), 
+				reach.getAverage(), macroDOA.getAverage(), microDOA.getAverage(), 
+				macroInnerDOA.getAverage(), microInnerDOA.getAverage());
+	}
+	
+	private static void printStatistics(GLIRStatisticsImpl stats) {
+		System.out.println("Precision:\t" + stats.getPrecision());
+		System.out.println("RPrecision:\t" + stats.getRprecision());
+		System.out.println("Reca:\t" + stats.getRecall());
+		System.out.println("F1:\t" + stats.getF1Measure());
+		System.out.println("fallOut:\t" + stats.getFallOut());
+		System.out.println("Reach:\t" + stats.getReach());
+		System.out.println("macroDOA:\t" + stats.getMacroDegreeOfAgreement());
+		System.out.println("microDOA:\t" + stats.getMicroDegreeOfAgreement());
+		System.out.println("macroInnerDOA:\t" + stats.getMacroInnerDOA());
+		System.out.println("microInnerDOA:\t" + stats.getMicroInnerDOA());
+		System.out.println("nDCG:\t" + stats.getNormalizedDiscountedCumulativeGain());
+		System.out.println("rNDCG:\t" + stats.getRndcg());
+	}
+	
+	// outputFileList may be null when nothing is predicted
+	private void loadDataModels(List<DataModel> trainingDataModels, List<DataModel> testingDataModels, 
+			List<File> outputFileList, String recommenderType) throws IOException {
 		if (mTrainingPathList == null || mTestingPathList == null) {
 			// Load DEFAULT files
 			log.warn("path not found, load default files instead!");
@@ -85,28 +196,5 @@ public class NFoldTest {
 				}
 			}
 		}
-		
-		if (outputFileList == null) {
-			GLIRStatisticsImpl stats = evaluator.evaluate(
-					builder, trainingDataModels, testingDataModels, null, at, 
-					GenericRecommenderIRStatsEvaluator.CHOOSE_THRESHOLD, 
-					1.0);
-			
-			System.out.println("Precision:\t" + stats.getPrecision());
-			System.out.println("RPrecision:\t" + stats.getRprecision());
-			System.out.println("Reca:\t" + stats.getRecall());
-			System.out.println("F1:\t" + stats.getF1Measure());
-			System.out.println("fallOut:\t" + stats.getFallOut());
-			System.out.println("Reach:\t" + stats.getReach());
-			System.out.println("macroDOA:\t" + stats.getMacroDegreeOfAgreement());
-			System.out.println("microDOA:\t" + stats.getMicroDegreeOfAgreement());
-			System.out.println("macroInnerDOA:\t" + stats.getMacroInnerDOA());
-			System.out.println("microInnerDOA:\t" + stats.getMicroInnerDOA());
-			System.out.println("nDCG:\t" + stats.getNormalizedDiscountedCumulativeGain());
-			System.out.println("rNDCG:\t" + stats.getRndcg());
-		} else {
-			evaluator.predict(builder, trainingDataModels, testingDataModels, outputFileList);
-		}
-
 	}
 }
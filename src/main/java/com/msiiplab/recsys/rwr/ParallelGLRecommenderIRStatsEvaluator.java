@@ -17,14 +17,14 @@
 
 package com.msiiplab.recsys.rwr;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 
 import org.apache.mahout.cf.taste.common.NoSuchUserException;
 import org.apache.mahout.cf.taste.common.TasteException;
@@ -147,39 +147,75 @@ public class ParallelGLRecommenderIRStatsEvaluator extends GLRecommenderIRStatsE
 			Recommender recommender = recommenderBuilder
 					.buildRecommender(trainDataModel);
 			
-			// Futures
-			ArrayList<Future<Integer>> futureList = new ArrayList<Future<Integer>>();
-
-			int N_CPUS = Runtime.getRuntime().availableProcessors();
-			ExecutorService pool = Executors.newFixedThreadPool(N_CPUS-1);
-			// ExecutorService pool = Executors.newFixedThreadPool(1);
+			// Score the test users in blocks, each block is prefetched in one batch 
+			// and evaluated right after by the same thread, while it is still cached
+			PersonalizedPageRankRecommender prefetcher = null;
+			int blockSize = 1;
+			if (recommender instanceof PersonalizedPageRankRecommender) {
+				prefetcher = (PersonalizedPageRankRecommender) recommender;
+				blockSize = prefetcher.getModel().getBatchSize();
+			}
 			
+			ArrayList<Callable<List<Integer>>> callableList = new ArrayList<Callable<List<Integer>>>();
+			long[] block = new long[blockSize];
+			List<Eval> evals = new ArrayList<Eval>(blockSize);
 			LongPrimitiveIterator it_user = testDataModel.getUserIDs();
 			while (it_user.hasNext()) {
 				long userID = it_user.nextLong();
-				
-				Future<Integer> future = pool.submit(new Eval(precision, rPrecision, recall, fallOut, nDCG, rNDCG, macroDOA, microDOA1, microDOA2, macroInnerDOA, microInnerDOA1, microInnerDOA2, trainDataModel, testDataModel, userID, recommender, at, rescorer, numItems));
-				futureList.add(future);
+				block[evals.size()] = userID;
+				evals.add(new Eval(precision, rPrecision, recall, fallOut, nDCG, rNDCG, macroDOA, microDOA1, microDOA2, macroInnerDOA, microInnerDOA1, microInnerDOA2, trainDataModel, testDataModel, userID, recommender, at, rescorer, numItems));
+				if (evals.size() == blockSize || !it_user.hasNext()) {
+					callableList.add(new BlockEval(prefetcher, Arrays.copyOf(block, evals.size()), evals));
+					evals = new ArrayList<Eval>(blockSize);
+				}
 			}
 			
-			for (Future<Integer> future: futureList) {
-				numUsersRecommendedFor ++;
-				try {
-					if (future.get() == 1) {
-						numUsersWithRecommendations ++;
+			try {
+				for (List<Integer> results: ComputePool.getInstance().invokeAll(callableList)) {
+					for (int result: results) {
+						numUsersRecommendedFor ++;
+						if (result == 1) {
+							numUsersWithRecommendations ++;
+						}
 					}
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				} catch (ExecutionException e) {
-					e.printStackTrace();
-					e.getCause().printStackTrace();
-					System.exit(1);
 				}
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			} catch (ExecutionException e) {
+				e.printStackTrace();
+				e.getCause().printStackTrace();
+				System.exit(1);
 			}
-			
-			pool.shutdown();
 
 			long end = System.currentTimeMillis();
+			
+			if (recommender instanceof PersonalizedPageRankRecommender) {
+				RecommenderModel model = ((PersonalizedPageRankRecommender) recommender).getModel();
+				if (model instanceof AbstractRecommenderModel) {
+					log.info("Preference cache: {}", 
+							((AbstractRecommenderModel) model).getUserPreferenceCache());
+				}
+				if (model instanceof PersonalizedPageRankModel) {
+					PersonalizedPageRankModel walkModel = (PersonalizedPageRankModel) model;
+					log.info("Scoring: {}", walkModel.getStatistics());
+					TransitionMatrix matrix = walkModel.getTransitionMatrix();
+					System.out.printf("Transition matrix of %d items, %d non-zeros \n", 
+							matrix.getSize(), matrix.getNumNonZeros());
+					// what sparsification saved, next to the time of the fold
+					if (walkModel.getNumEdges() >= 0) {
+						System.out.printf("Kept %d of %d co-occurrence edges \n", 
+								walkModel.getNumKeptEdges(), walkModel.getNumEdges());
+					}
+				}
+				// models holding files release them once their fold is done
+				if (model instanceof Closeable) {
+					try {
+						((Closeable) model).close();
+					} catch (IOException e) {
+						log.warn("Can not close the model", e);
+					}
+				}
+			}
 
 			CrossValidationPrecision.addDatum(precision.getAverage());
 			CrossValidationRPrecision.addDatum(rPrecision.getAverage());
@@ -253,6 +289,31 @@ public class ParallelGLRecommenderIRStatsEvaluator extends GLRecommenderIRStatsE
 				CrossValidationMicroInnerDOA.getAverage());
 	}
 	
+	// prefetches a block of users if a prefetcher is given, then evaluates them one by one
+	public class BlockEval implements Callable<List<Integer>> {
+		private final PersonalizedPageRankRecommender prefetcher;
+		private final long[] userIDs;
+		private final List<Eval> evals;
+
+		public BlockEval(PersonalizedPageRankRecommender prefetcher, long[] userIDs, List<Eval> evals) {
+			this.prefetcher = prefetcher;
+			this.userIDs = userIDs;
+			this.evals = evals;
+		}
+
+		@Override
+		public List<Integer> call() throws Exception {
+			if (prefetcher != null) {
+				prefetcher.prefetch(userIDs);
+			}
+			List<Integer> results = new ArrayList<Integer>(evals.size());
+			for (Eval eval: evals) {
+				results.add(eval.call());
+			}
+			return results;
+		}
+	}
+	
 	public class Eval implements Callable<Integer> {
 		private RunningAverage precision;
 		private RunningAverage rPrecision;
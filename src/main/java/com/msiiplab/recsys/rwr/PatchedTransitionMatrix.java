@@ -0,0 +1,253 @@
+package com.msiiplab.recsys.rwr;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+
+/**
+ * A base transition matrix with the out-going edges of a few items replaced,
+ * so that preference updates are walked over without rebuilding the base.
+ *
+ * The replaced items are masked out of the input of the base product and
+ * their new edges are scattered into the result, a product costs the base
+ * product plus O(items + replaced edges). The item index may hold items the
+ * base does not know, they only have replaced edges.
+ */
+public class PatchedTransitionMatrix implements TransitionMatrix {
+
+	private final TransitionMatrix mBase;
+	private final ItemIndex mItemIndex;
+	// base index of each item or -1, null when both indices are the same
+	private final int[] mBaseIndices;
+	// replaced items in ascending index, edges of mSources[s] are [mSourcePtr[s], mSourcePtr[s+1])
+	private final int[] mSources;
+	private final int[] mSourcePtr;
+	private final int[] mTargets;
+	private final double[] mWeights;
+	private final boolean[] mReplaced;
+	// per thread input and output of the base product
+	private final ThreadLocal<DenseColumnVector[]> mVectorBuffers;
+	private final ThreadLocal<DenseColumnBlock[]> mBlockBuffers;
+
+	/**
+	 * @param base matrix of the items that are not replaced
+	 * @param itemIndex dictionary of all items, at least those of the base
+	 * @param edges replaced items, edges[i][j] is the weight of the edge i -> j
+	 */
+	public PatchedTransitionMatrix(TransitionMatrix base, ItemIndex itemIndex,
+			FastByIDMap<FastByIDMap<Double>> edges) {
+		ItemIndex baseIndex = base.getItemIndex();
+		mBase = base;
+		mItemIndex = itemIndex;
+		if (Arrays.equals(baseIndex.getItemIDs(), itemIndex.getItemIDs())) {
+			mBaseIndices = null;
+		} else {
+			mBaseIndices = new int[itemIndex.size()];
+			for (int i=0; i<mBaseIndices.length; i++) {
+				mBaseIndices[i] = baseIndex.indexOf(itemIndex.getItemID(i));
+			}
+		}
+
+		mReplaced = new boolean[itemIndex.size()];
+		int numEdges = 0;
+		Iterator<Long> it_source = edges.keySetIterator();
+		while (it_source.hasNext()) {
+			long itemID = it_source.next();
+			mReplaced[itemIndex.indexOf(itemID)] = true;
+			numEdges += edges.get(itemID).size();
+		}
+		mSources = new int[edges.size()];
+		mSourcePtr = new int[edges.size()+1];
+		mTargets = new int[numEdges];
+		mWeights = new double[numEdges];
+		int s = 0;
+		int k = 0;
+		for (int i=0; i<mReplaced.length; i++) {
+			if (!mReplaced[i]) {
+				continue;
+			}
+			mSources[s] = i;
+			FastByIDMap<Double> row = edges.get(itemIndex.getItemID(i));
+			Iterator<Long> it_target = row.keySetIterator();
+			while (it_target.hasNext()) {
+				long itemID = it_target.next();
+				mTargets[k] = itemIndex.indexOf(itemID);
+				mWeights[k] = row.get(itemID);
+				k ++;
+			}
+			mSourcePtr[++s] = k;
+		}
+		mVectorBuffers = new ThreadLocal<DenseColumnVector[]>();
+		mBlockBuffers = new ThreadLocal<DenseColumnBlock[]>();
+	}
+
+	/**
+	 * @return the matrix whose edges are not replaced
+	 */
+	public TransitionMatrix getBase() {
+		return mBase;
+	}
+
+	/**
+	 * @return the replaced items with their edges, edges[i][j] is the weight of the edge i -> j
+	 */
+	public FastByIDMap<FastByIDMap<Double>> getReplacedEdges() {
+		FastByIDMap<FastByIDMap<Double>> edges = new FastByIDMap<FastByIDMap<Double>>(mSources.length);
+		for (int s=0; s<mSources.length; s++) {
+			FastByIDMap<Double> row = new FastByIDMap<Double>(mSourcePtr[s+1] - mSourcePtr[s]);
+			for (int k=mSourcePtr[s]; k<mSourcePtr[s+1]; k++) {
+				row.put(mItemIndex.getItemID(mTargets[k]), mWeights[k]);
+			}
+			edges.put(mItemIndex.getItemID(mSources[s]), row);
+		}
+		return edges;
+	}
+
+	/**
+	 * @return number of replaced edges, which bounds the extra work of a product
+	 */
+	public int getNumReplacedNonZeros() {
+		return mTargets.length;
+	}
+
+	@Override
+	public int getSize() {
+		return mItemIndex.size();
+	}
+
+	/**
+	 * Counts the masked edges of the base as well
+	 */
+	@Override
+	public int getNumNonZeros() {
+		return mBase.getNumNonZeros() + mTargets.length;
+	}
+
+	@Override
+	public ItemIndex getItemIndex() {
+		return mItemIndex;
+	}
+
+	@Override
+	public ColumnVector mul(ColumnVector V) throws TasteException {
+		DenseColumnVector x = new DenseColumnVector(mItemIndex).assign(V.mVector);
+		DenseColumnVector y = new DenseColumnVector(mItemIndex);
+		mul(x, y);
+		double[] values = y.getValues();
+		FastByIDMap<Double> vector = new FastByIDMap<Double>(values.length);
+		for (int j=0; j<values.length; j++) {
+			if (values[j] != 0.0) {
+				vector.put(mItemIndex.getItemID(j), values[j]);
+			}
+		}
+		return new ColumnVector(vector);
+	}
+
+	@Override
+	public void mul(DenseColumnVector V, DenseColumnVector result) {
+		mul(V, result, false);
+	}
+
+	@Override
+	public void parallelMul(DenseColumnVector V, DenseColumnVector result) {
+		mul(V, result, true);
+	}
+
+	private void mul(DenseColumnVector V, DenseColumnVector result, boolean parallel) {
+		DenseColumnVector[] buffers = getVectorBuffers();
+		copyToBase(V.getValues(), buffers[0].getValues(), 1);
+		if (parallel) {
+			mBase.parallelMul(buffers[0], buffers[1]);
+		} else {
+			mBase.mul(buffers[0], buffers[1]);
+		}
+		copyFromBase(buffers[1].getValues(), result.getValues(), 1);
+		scatter(V.getValues(), result.getValues(), 1);
+	}
+
+	@Override
+	public void mul(DenseColumnBlock V, DenseColumnBlock result) {
+		int width = V.getWidth();
+		DenseColumnBlock[] buffers = getBlockBuffers(width);
+		copyToBase(V.getValues(), buffers[0].getValues(), width);
+		mBase.mul(buffers[0], buffers[1]);
+		copyFromBase(buffers[1].getValues(), result.getValues(), width);
+		scatter(V.getValues(), result.getValues(), width);
+	}
+
+	// input of the base product, the replaced items are masked out
+	private void copyToBase(double[] x, double[] base, int width) {
+		if (mBaseIndices == null) {
+			System.arraycopy(x, 0, base, 0, x.length);
+			for (int i: mSources) {
+				Arrays.fill(base, i * width, (i+1) * width, 0.0);
+			}
+			return;
+		}
+		for (int i=0; i<mBaseIndices.length; i++) {
+			int b = mBaseIndices[i];
+			if (b < 0) {
+				continue;
+			}
+			if (mReplaced[i]) {
+				Arrays.fill(base, b * width, (b+1) * width, 0.0);
+			} else {
+				System.arraycopy(x, i * width, base, b * width, width);
+			}
+		}
+	}
+
+	// the items unknown to the base start from 0
+	private void copyFromBase(double[] base, double[] y, int width) {
+		if (mBaseIndices == null) {
+			System.arraycopy(base, 0, y, 0, y.length);
+			return;
+		}
+		for (int i=0; i<mBaseIndices.length; i++) {
+			int b = mBaseIndices[i];
+			if (b < 0) {
+				Arrays.fill(y, i * width, (i+1) * width, 0.0);
+			} else {
+				System.arraycopy(base, b * width, y, i * width, width);
+			}
+		}
+	}
+
+	// y[j] += weight(i -> j) * x[i] over the replaced items i
+	private void scatter(double[] x, double[] y, int width) {
+		for (int s=0; s<mSources.length; s++) {
+			int source = mSources[s] * width;
+			for (int k=mSourcePtr[s]; k<mSourcePtr[s+1]; k++) {
+				double weight = mWeights[k];
+				int target = mTargets[k] * width;
+				for (int b=0; b<width; b++) {
+					y[target+b] += weight * x[source+b];
+				}
+			}
+		}
+	}
+
+	private DenseColumnVector[] getVectorBuffers() {
+		DenseColumnVector[] buffers = mVectorBuffers.get();
+		if (buffers == null) {
+			ItemIndex baseIndex = mBase.getItemIndex();
+			buffers = new DenseColumnVector[] {
+					new DenseColumnVector(baseIndex), new DenseColumnVector(baseIndex)};
+			mVectorBuffers.set(buffers);
+		}
+		return buffers;
+	}
+
+	private DenseColumnBlock[] getBlockBuffers(int width) {
+		DenseColumnBlock[] buffers = mBlockBuffers.get();
+		if (buffers == null || buffers[0].getWidth() != width) {
+			ItemIndex baseIndex = mBase.getItemIndex();
+			buffers = new DenseColumnBlock[] {
+					new DenseColumnBlock(baseIndex, width), new DenseColumnBlock(baseIndex, width)};
+			mBlockBuffers.set(buffers);
+		}
+		return buffers;
+	}
+}
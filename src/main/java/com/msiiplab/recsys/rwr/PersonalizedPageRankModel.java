@@ -1,137 +1,969 @@
 package com.msiiplab.recsys.rwr;
 
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
 import org.apache.mahout.cf.taste.common.NoSuchUserException;
 import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.common.RunningAverage;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.model.Preference;
-import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
 
 public class PersonalizedPageRankModel extends AbstractRecommenderModel {
 	
-	private final StochasticMatrix mStochasticMatrix;
+	public static final Logger log = LoggerFactory.getLogger(PersonalizedPageRankModel.class);
+	
+	// patches are merged into a rebuilt matrix above 1/sMergeRatio of its edges
+	private static final int sMergeRatio = 8;
+	// items recounted together by a rebuild
+	private static final int sRebuildItems = 4096;
+	
+	// whether preferences can be updated, the matrix was built from co-occurrence counts
+	private final boolean mUpdatable;
+	// replaced as a whole by refresh(), walks keep the matrix they started with
+	private volatile TransitionMatrix mTransitionMatrix;
 	private final DataModel mDataModel;
-	private final ColumnVector UnificationRank;
-	private final UserPreferenceCache mPersonalizedRankCache;
-	private final FastByIDMap<Double> mPrefSumCache;
+	// preferences set or removed since the data model was loaded, guarded by mUpdateLock
+	private final Object mUpdateLock;
+	private final FastByIDMap<FastByIDMap<Float>> mAddedPreferences;
+	private final FastByIDMap<FastIDSet> mRemovedPreferences;
+	// changed since the last refresh
+	private final FastIDSet mChangedItems;
+	private final FastIDSet mChangedUsers;
+	// last scores of users invalidated by refresh(), where their next walk starts
+	private final FastByIDMap<FastByIDMap<Double>> mWarmStarts;
+	private final ThreadLocal<WalkBuffers> mWalkBuffers;
+	private final ConcurrentUserCache<Personalization> mPersonalizedRankCache;
 	private ColumnVector mReWeight;
-	private static final double sAlpha = 0.9;
-	private static final int sWalkingSteps = 6;
+	private final double mAlpha;
+	private final int mMaxSteps;
+	private final double mTolerance;
+	private final RunningAverage mWalkingSteps;
+	private final int mBatchSize;
+	private final WeightStorage mWeightStorage;
+	private final RandomWalkParameters mParameters;
+	// co-occurrence edges before and after sparsification, -1 when not built from counts
+	private long mNumEdges = -1;
+	private long mNumKeptEdges = -1;
+	// M^T U of the matrix walked over, for getPreferencesForUsers(long[], double[])
+	private volatile UniformPower mUniformPower;
+	
+	protected PersonalizedPageRankModel(DataModel dataModel, RandomWalkParameters parameters) throws TasteException {
+		this(dataModel, parameters, TransitionMatrixSnapshot.getInstance(dataModel, parameters));
+	}
 	
-	private PersonalizedPageRankModel(DataModel dataModel) throws TasteException {
+	// not updatable when the matrix comes from a snapshot file or is sparsified
+	private PersonalizedPageRankModel(DataModel dataModel, RandomWalkParameters parameters, 
+			TransitionMatrixSnapshot snapshot) throws TasteException {
+		this(dataModel, parameters, compact(snapshot.getTransitionMatrix(), parameters.getWeightStorage()), 
+				snapshot.getCounts());
+		mNumEdges = snapshot.getNumEdges();
+		mNumKeptEdges = snapshot.getNumKeptEdges();
+	}
+	
+	/**
+	 * Walks over the given transition matrix, no co-occurrence matrix is 
+	 * built, so preferences can not be updated
+	 */
+	protected PersonalizedPageRankModel(DataModel dataModel, RandomWalkParameters parameters, 
+			TransitionMatrix transitionMatrix) {
+		this(dataModel, parameters, transitionMatrix, null);
+	}
+	
+	private PersonalizedPageRankModel(DataModel dataModel, RandomWalkParameters parameters, 
+			TransitionMatrix transitionMatrix, FastByIDMap<FastByIDMap<Long>> counts) {
 		super();
+		mAlpha = parameters.getAlpha();
+		mMaxSteps = parameters.getMaxSteps();
+		mTolerance = parameters.getTolerance();
+		mWalkingSteps = new GLRunningAverage();
+		mBatchSize = parameters.getBatchSize();
+		mWeightStorage = parameters.getWeightStorage();
+		mParameters = parameters;
+		setTopK(parameters.getTopK());
 		mReWeight = null;
-		new FastByIDMap<Double>();
-		mPersonalizedRankCache = new UserPreferenceCache(sInitialSize, sLoadFactor);
-		mPrefSumCache = new FastByIDMap<Double>();
-		mStochasticMatrix = new StochasticMatrix(10, sLoadFactor);
-		FastByIDMap<Double> UnifiedRank = new FastByIDMap<Double>();
+		// personalized ranks are as small as the user's preferences, only the entry budget applies
+		mPersonalizedRankCache = new ConcurrentUserCache<Personalization>(
+				parameters.getCacheSize(), 0, null);
+		mUserPreferenceCache = new ConcurrentUserCache<FastByIDMap<Double>>(
+				parameters.getCacheSize(), parameters.getCacheMemory(), 
+				new ConcurrentUserCache.PreferenceWeigher());
+		mWalkBuffers = new ThreadLocal<WalkBuffers>();
+		// the counts are dropped once the matrix is built, updates recount the changed items
+		mUpdatable = counts != null;
+		mTransitionMatrix = transitionMatrix;
 		mDataModel = dataModel;
-		Iterator<Long> items = dataModel.getItemIDs();
-		double numItems = dataModel.getNumItems();
-		while ( items.hasNext() ) {
-			long itemID = items.next();
-			Iterator<Long> items2 = dataModel.getItemIDs();
-			while ( items2.hasNext() ) {
-				long itemID2 = items2.next();
-				int userNum = dataModel.getNumUsersWithPreferenceFor(itemID, itemID2);
-				if (userNum > 0) {
-					mStochasticMatrix.put(itemID, itemID2, userNum);
-				}
-			}
-			UnifiedRank.put(itemID, (double) 1.0/ (double) numItems);
+		mUpdateLock = new Object();
+		mAddedPreferences = new FastByIDMap<FastByIDMap<Float>>();
+		mRemovedPreferences = new FastByIDMap<FastIDSet>();
+		mChangedItems = new FastIDSet();
+		mChangedUsers = new FastIDSet();
+		mWarmStarts = new FastByIDMap<FastByIDMap<Double>>();
+	}
+	
+	private static TransitionMatrix compact(CSRStochasticMatrix matrix, WeightStorage storage) {
+		if (storage == WeightStorage.DOUBLE) {
+			return matrix;
 		}
-		UnificationRank = new ColumnVector(UnifiedRank);
+		CompactCSRStochasticMatrix compact = CompactCSRStochasticMatrix.getInstance(matrix, storage);
+		log.info("Stored {} transition weights as {}, {} bytes instead of {}", new Object[] {
+				matrix.getNumNonZeros(), storage, compact.getBytes(), CompactCSRStochasticMatrix.getBytes(
+						matrix.getSize(), matrix.getNumNonZeros(), WeightStorage.DOUBLE)});
+		return compact;
 	}
 	
-	private PersonalizedPageRankModel(DataModel dataModel, FastByIDMap<Double> reWeight) throws TasteException {
-		this(dataModel);
+	private PersonalizedPageRankModel(DataModel dataModel, RandomWalkParameters parameters, 
+			FastByIDMap<Double> reWeight) throws TasteException {
+		this(dataModel, parameters);
 		mReWeight = new ColumnVector(reWeight);
 	}
 
 	@Override
 	protected FastByIDMap<Double> getPreferencesForUser(long userID) throws TasteException {
 		try {
+			FastByIDMap<Double> WarmStart = removeWarmStart(userID);
 			FastByIDMap<Double> PersonalizedRank = getPersonalizedRank(userID);
-			FastByIDMap<Double> PersonalizedPageRank = RandomWalk(
-						UnificationRank, 
-						new ColumnVector(PersonalizedRank)
-					).toFastByIDMap();
-			return PersonalizedPageRank;
+			TransitionMatrix matrix = mTransitionMatrix;
+			WalkBuffers buffers = getWalkBuffers(matrix);
+			buffers.mPersonalizedRank.assign(PersonalizedRank);
+			DenseColumnVector PersonalizedPageRank;
+			if (WarmStart != null) {
+				buffers.mRank.assign(WarmStart);
+				PersonalizedPageRank = WarmWalk(matrix, buffers);
+			} else {
+				buffers.mRank.fill((double) 1.0/ (double) matrix.getSize());
+				PersonalizedPageRank = RandomWalk(matrix, buffers);
+			}
+			mWalkingSteps.addDatum(buffers.mSteps);
+			log.debug("Walked {} steps for user {}, residual {}, warm start {}", 
+					new Object[] {buffers.mSteps, userID, buffers.mResidual, WarmStart != null});
+			return PersonalizedPageRank.toFastByIDMap();
 		} catch (NoSuchUserException e) {
 			FastByIDMap<Double> PersonalizedPageRank = new FastByIDMap<Double>();
 			return PersonalizedPageRank;
 		}
 	}
 	
+	@Override
+	protected FastByIDMap<FastByIDMap<Double>> getPreferencesForUsers(long[] userIDs) throws TasteException {
+		FastByIDMap<FastByIDMap<Double>> preferences = new FastByIDMap<FastByIDMap<Double>>(userIDs.length);
+		TransitionMatrix matrix = mTransitionMatrix;
+		ItemIndex itemIndex = matrix.getItemIndex();
+		int width = Math.min(mBatchSize, userIDs.length);
+		if (width == 0) {
+			return preferences;
+		}
+		DenseColumnBlock Rank = new DenseColumnBlock(itemIndex, width);
+		DenseColumnBlock NextRank = new DenseColumnBlock(itemIndex, width);
+		DenseColumnBlock PersonalizedRank = new DenseColumnBlock(itemIndex, width);
+		long[] block = new long[width];
+		int blockSize = 0;
+		int numWarmStarts = 0;
+		for (long userID: userIDs) {
+			try {
+				FastByIDMap<Double> WarmStart = removeWarmStart(userID);
+				PersonalizedRank.assign(blockSize, getPersonalizedRank(userID));
+				// each column starts from its own warm start, or from uniform
+				if (WarmStart != null) {
+					Rank.assign(blockSize, WarmStart);
+					numWarmStarts ++;
+				} else {
+					Rank.fill(blockSize, (double) 1.0/ (double) matrix.getSize());
+				}
+				block[blockSize++] = userID;
+			} catch (NoSuchUserException e) {
+				preferences.put(userID, new FastByIDMap<Double>());
+			}
+			if (blockSize == width) {
+				RandomWalk(matrix, block, blockSize, numWarmStarts, Rank, NextRank, PersonalizedRank, preferences);
+				blockSize = 0;
+				numWarmStarts = 0;
+			}
+		}
+		if (blockSize > 0) {
+			RandomWalk(matrix, block, blockSize, numWarmStarts, Rank, NextRank, PersonalizedRank, preferences);
+		}
+		return preferences;
+	}
+	
+	/**
+	 * Walks the first blockSize columns of the block together from the ranks
+	 * they are seeded with, unused columns are walked along but dropped.
+	 */
+	private void RandomWalk(TransitionMatrix matrix, long[] block, int blockSize, int numWarmStarts,
+			DenseColumnBlock Rank, DenseColumnBlock NextRank, DenseColumnBlock PersonalizedRank, 
+			FastByIDMap<FastByIDMap<Double>> preferences) {
+		double[] residual = new double[Rank.getWidth()];
+		DenseColumnBlock PR = Rank;
+		DenseColumnBlock NR = NextRank;
+		int step = 0;
+		while (step < mMaxSteps) {
+			// NR = a*SM*PR + (1-a)*P
+			matrix.mul(PR, NR);
+			NR.scaleAndAxpy(mAlpha, 1.0-mAlpha, PersonalizedRank);
+			step ++;
+			DenseColumnBlock temp = PR;
+			PR = NR;
+			NR = temp;
+			if (mTolerance > 0) {
+				PR.l1Distance(NR, residual);
+				boolean converged = true;
+				for (int b=0; b<blockSize; b++) {
+					converged &= residual[b] < mTolerance;
+				}
+				if (converged) {
+					break;
+				}
+			}
+		}
+		for (int b=0; b<blockSize; b++) {
+			mWalkingSteps.addDatum(step);
+			preferences.put(block[b], PR.toFastByIDMap(b));
+		}
+		log.debug("Walked {} steps for a block of {} users, {} warm started", 
+				new Object[] {step, blockSize, numWarmStarts});
+	}
+
+	/**
+	 * Scores the users for several alphas from one walk. The walk of T = maxSteps
+	 * steps from the uniform rank U is the truncated power series
+	 *
+	 * 		a^T M^T U + (1-a) * sum_{k<T} a^k M^k P
+	 *
+	 * so M^k P is computed once per user and summed up for every alpha, and
+	 * M^T U once for all users. The tolerance is not used, every alpha walks
+	 * exactly maxSteps steps.
+	 * @return the scores of the users for each alpha, in the order of alphas
+	 */
+	public List<FastByIDMap<FastByIDMap<Double>>> getPreferencesForUsers(long[] userIDs, double[] alphas)
+			throws TasteException {
+		List<FastByIDMap<FastByIDMap<Double>>> preferences =
+				new ArrayList<FastByIDMap<FastByIDMap<Double>>>(alphas.length);
+		for (int a=0; a<alphas.length; a++) {
+			preferences.add(new FastByIDMap<FastByIDMap<Double>>(userIDs.length));
+		}
+		TransitionMatrix matrix = mTransitionMatrix;
+		ItemIndex itemIndex = matrix.getItemIndex();
+		int width = Math.min(mBatchSize, userIDs.length);
+		if (width == 0) {
+			return preferences;
+		}
+		DenseColumnVector UniformPower = getUniformPower(matrix);
+		DenseColumnBlock Power = new DenseColumnBlock(itemIndex, width);
+		DenseColumnBlock NextPower = new DenseColumnBlock(itemIndex, width);
+		DenseColumnBlock[] Ranks = new DenseColumnBlock[alphas.length];
+		for (int a=0; a<alphas.length; a++) {
+			Ranks[a] = new DenseColumnBlock(itemIndex, width);
+		}
+		long[] block = new long[width];
+		int blockSize = 0;
+		for (long userID: userIDs) {
+			try {
+				Power.assign(blockSize, getPersonalizedRank(userID));
+				block[blockSize++] = userID;
+			} catch (NoSuchUserException e) {
+				for (FastByIDMap<FastByIDMap<Double>> alphaPreferences: preferences) {
+					alphaPreferences.put(userID, new FastByIDMap<Double>());
+				}
+			}
+			if (blockSize == width) {
+				PowerSeriesWalk(matrix, block, blockSize, Power, NextPower, Ranks, UniformPower, alphas, preferences);
+				blockSize = 0;
+			}
+		}
+		if (blockSize > 0) {
+			PowerSeriesWalk(matrix, block, blockSize, Power, NextPower, Ranks, UniformPower, alphas, preferences);
+		}
+		return preferences;
+	}
+
+	/**
+	 * Sums up the power series of the first blockSize columns of Power for
+	 * every alpha, Power and NextPower are overwritten
+	 */
+	private void PowerSeriesWalk(TransitionMatrix matrix, long[] block, int blockSize,
+			DenseColumnBlock Power, DenseColumnBlock NextPower, DenseColumnBlock[] Ranks,
+			DenseColumnVector UniformPower, double[] alphas,
+			List<FastByIDMap<FastByIDMap<Double>>> preferences) {
+		for (int a=0; a<alphas.length; a++) {
+			Ranks[a].fill(0.0).axpy(Math.pow(alphas[a], mMaxSteps), UniformPower);
+		}
+		double[][] ranks = new double[alphas.length][];
+		for (int a=0; a<alphas.length; a++) {
+			ranks[a] = Ranks[a].getValues();
+		}
+		double[] coefficients = new double[alphas.length];
+		// MP = M^k P
+		DenseColumnBlock MP = Power;
+		DenseColumnBlock NP = NextPower;
+		for (int step=0; step<mMaxSteps; step++) {
+			if (step > 0) {
+				matrix.mul(MP, NP);
+				DenseColumnBlock temp = MP;
+				MP = NP;
+				NP = temp;
+			}
+			for (int a=0; a<alphas.length; a++) {
+				coefficients[a] = (1.0-alphas[a]) * Math.pow(alphas[a], step);
+			}
+			// one pass over M^k P adds it to the ranks of every alpha
+			double[] values = MP.getValues();
+			for (int i=0; i<values.length; i++) {
+				double value = values[i];
+				for (int a=0; a<alphas.length; a++) {
+					ranks[a][i] += coefficients[a] * value;
+				}
+			}
+		}
+		for (int b=0; b<blockSize; b++) {
+			mWalkingSteps.addDatum(mMaxSteps);
+			for (int a=0; a<alphas.length; a++) {
+				preferences.get(a).put(block[b], Ranks[a].toFastByIDMap(b));
+			}
+		}
+		log.debug("Walked {} steps for a block of {} users and {} alphas",
+				new Object[] {mMaxSteps, blockSize, alphas.length});
+	}
+
+	private DenseColumnVector getUniformPower(TransitionMatrix matrix) {
+		UniformPower power = mUniformPower;
+		if (power == null || power.mMatrix != matrix) {
+			DenseColumnVector PR = new DenseColumnVector(matrix.getItemIndex());
+			DenseColumnVector NR = new DenseColumnVector(matrix.getItemIndex());
+			PR.fill((double) 1.0/ (double) matrix.getSize());
+			for (int step=0; step<mMaxSteps; step++) {
+				matrix.parallelMul(PR, NR);
+				DenseColumnVector temp = PR;
+				PR = NR;
+				NR = temp;
+			}
+			power = new UniformPower(matrix, PR);
+			mUniformPower = power;
+		}
+		return power.mRank;
+	}
+
+	// M^T U together with the matrix it was walked over
+	private static class UniformPower {
+		private final TransitionMatrix mMatrix;
+		private final DenseColumnVector mRank;
+
+		public UniformPower(TransitionMatrix matrix, DenseColumnVector rank) {
+			mMatrix = matrix;
+			mRank = rank;
+		}
+	}
+
+	/**
+	 * @return one model per alpha, a user is scored for all alphas the first
+	 * 		time any of them asks for it, see {@link #getPreferencesForUsers(long[], double[])}.
+	 * 		The models are not invalidated by {@link #refresh()}.
+	 */
+	public List<RecommenderModel> getAlphaModels(double[] alphas) {
+		double[] sweep = alphas.clone();
+		List<AlphaModel> models = new ArrayList<AlphaModel>(sweep.length);
+		for (int a=0; a<sweep.length; a++) {
+			Preconditions.checkArgument(sweep[a] > 0 && sweep[a] < 1, "alpha must be in (0, 1)");
+			models.add(new AlphaModel(sweep, a, models));
+		}
+		return new ArrayList<RecommenderModel>(models);
+	}
+
+	// the walk for one of several alphas, caching the scores of the others as well
+	private class AlphaModel extends AbstractRecommenderModel {
+		private final double[] mAlphas;
+		private final int mIndex;
+		private final List<AlphaModel> mModels;
+
+		public AlphaModel(double[] alphas, int index, List<AlphaModel> models) {
+			super();
+			mAlphas = alphas;
+			mIndex = index;
+			mModels = models;
+			setTopK(mParameters.getTopK());
+			mUserPreferenceCache = new ConcurrentUserCache<FastByIDMap<Double>>(
+					mParameters.getCacheSize(), mParameters.getCacheMemory(),
+					new ConcurrentUserCache.PreferenceWeigher());
+		}
+
+		@Override
+		protected FastByIDMap<Double> getPreferencesForUser(long userID) throws TasteException {
+			return getPreferencesForUsers(new long[] {userID}).get(userID);
+		}
+
+		@Override
+		protected FastByIDMap<FastByIDMap<Double>> getPreferencesForUsers(long[] userIDs) throws TasteException {
+			List<FastByIDMap<FastByIDMap<Double>>> preferences =
+					PersonalizedPageRankModel.this.getPreferencesForUsers(userIDs, mAlphas);
+			for (int a=0; a<mAlphas.length; a++) {
+				if (a == mIndex) {
+					continue;
+				}
+				for (long userID: userIDs) {
+					mModels.get(a).cachePreferences(userID, preferences.get(a).get(userID));
+				}
+			}
+			return preferences.get(mIndex);
+		}
+
+		@Override
+		protected FastIDSet getCandidateItemIDs(long userID) throws TasteException {
+			return PersonalizedPageRankModel.this.getCandidateItemIDs(userID);
+		}
+
+		@Override
+		public int getBatchSize() {
+			return mBatchSize;
+		}
+	}
+
+	/**
+	 * @return number of users walked together by one pass over the matrix
+	 */
+	@Override
+	public int getBatchSize() {
+		return mBatchSize;
+	}
+
+	// the items a recommender over the data model ranks, updates are not in the data model
+	@Override
+	protected FastIDSet getCandidateItemIDs(long userID) throws TasteException {
+		return getCandidateItemIDs(mDataModel, userID);
+	}
+	
 	public double getPrefSum(long userID) throws TasteException {
 		try {
-			if (!mPrefSumCache.containsKey(userID)) {
-				// In this function we compute prefSum and store it to cache
-				getPersonalizedRank(userID);
-			}
-			return mPrefSumCache.get(userID);
+			return getCachedPersonalizedRank(userID).mPrefSum;
 		} catch (NoSuchUserException e) {
 			return 0.0;
 		}
 	}
 	
-	private FastByIDMap<Double> getPersonalizedRank(long userID) throws TasteException {
-		FastByIDMap<Double> PersonalizedRank = mPersonalizedRankCache.getCache(userID);
-		if (PersonalizedRank == null) {
-			PersonalizedRank = new FastByIDMap<Double>();
-			PreferenceArray array = mDataModel.getPreferencesFromUser(userID);
-			Iterator<Preference> it = array.iterator();
-			double prefSum = 0;
-			while (it.hasNext()) {
-				// multiply mReWeight to personalized rank ( in other words, bias )
-				Preference pref = it.next();
-				double prefValue;
-				if (mReWeight != null) {
-					prefValue = (double) pref.getValue() * mReWeight.get(pref.getItemID());
+	/**
+	 * @return the user's preferences, re-weighted and normalized to sum 1
+	 * @throws NoSuchUserException if the user has no preference
+	 */
+	protected FastByIDMap<Double> getPersonalizedRank(long userID) throws TasteException {
+		return getCachedPersonalizedRank(userID).mRank;
+	}
+	
+	private Personalization getCachedPersonalizedRank(final long userID) throws TasteException {
+		return mPersonalizedRankCache.get(userID, new Callable<Personalization>() {
+			@Override
+			public Personalization call() throws TasteException {
+				FastByIDMap<Double> PersonalizedRank = new FastByIDMap<Double>();
+				FastByIDMap<Float> preferences = getPreferenceValues(userID);
+				Iterator<Long> it = preferences.keySetIterator();
+				double prefSum = 0;
+				while (it.hasNext()) {
+					// multiply mReWeight to personalized rank ( in other words, bias )
+					long itemID = it.next();
+					double prefValue;
+					if (mReWeight != null) {
+						prefValue = (double) preferences.get(itemID) * mReWeight.get(itemID);
+					} else {
+						prefValue = (double) preferences.get(itemID);
+					}
+					PersonalizedRank.put(itemID, prefValue);
+					prefSum += prefValue;
+				}
+				if (prefSum > 0) {
+					PersonalizedRank = new ColumnVector(PersonalizedRank).dotMul(1.0/prefSum).toFastByIDMap();
 				} else {
-					prefValue = (double) pref.getValue();
+					// No Preference Data! Do something here!
+					throw new NoSuchUserException(userID);
 				}
-				PersonalizedRank.put(pref.getItemID(), prefValue);
-				prefSum += prefValue;
+				return new Personalization(PersonalizedRank, prefSum);
 			}
-			if (prefSum > 0) {
-				mPrefSumCache.put(userID, prefSum);
-				PersonalizedRank = new ColumnVector(PersonalizedRank).dotMul(1.0/prefSum).toFastByIDMap();
-			} else {
-				// No Preference Data! Do something here!
-				throw new NoSuchUserException(userID);
+		});
+	}
+	
+	// normalized preferences of a user together with their sum before normalization
+	private static class Personalization {
+		private final FastByIDMap<Double> mRank;
+		private final double mPrefSum;
+		
+		public Personalization(FastByIDMap<Double> rank, double prefSum) {
+			mRank = rank;
+			mPrefSum = prefSum;
+		}
+	}
+	
+	/**
+	 * Adds or changes a preference. A new item of the user co-occurs with 
+	 * each of the user's items, which are marked as changed in O(user degree). 
+	 * Nothing is walked over the update before {@link #refresh()}.
+	 */
+	@Override
+	public void setPreference(long userID, long itemID, float value) throws TasteException {
+		synchronized (mUpdateLock) {
+			checkUpdatable();
+			FastIDSet itemIDs = getItemIDsFromUser(userID);
+			if (!itemIDs.contains(itemID)) {
+				markChanged(itemID, itemIDs);
+			}
+			FastByIDMap<Float> added = mAddedPreferences.get(userID);
+			if (added == null) {
+				added = new FastByIDMap<Float>();
+				mAddedPreferences.put(userID, added);
+			}
+			added.put(itemID, value);
+			FastIDSet removed = mRemovedPreferences.get(userID);
+			if (removed != null) {
+				removed.remove(itemID);
+			}
+			mChangedUsers.add(userID);
+		}
+	}
+	
+	/**
+	 * Removes a preference, the reverse of {@link #setPreference(long, long, float)}
+	 */
+	@Override
+	public void removePreference(long userID, long itemID) throws TasteException {
+		synchronized (mUpdateLock) {
+			checkUpdatable();
+			FastIDSet itemIDs = getItemIDsFromUser(userID);
+			if (!itemIDs.remove(itemID)) {
+				return;
+			}
+			markChanged(itemID, itemIDs);
+			FastByIDMap<Float> added = mAddedPreferences.get(userID);
+			if (added != null) {
+				added.remove(itemID);
+			}
+			if (hasDataModelPreference(userID, itemID)) {
+				FastIDSet removed = mRemovedPreferences.get(userID);
+				if (removed == null) {
+					removed = new FastIDSet();
+					mRemovedPreferences.put(userID, removed);
+				}
+				removed.add(itemID);
+			}
+			mChangedUsers.add(userID);
+		}
+	}
+	
+	/**
+	 * Recounts the out-going edges of the changed items and patches them over
+	 * the transition matrix, in O(changed items x their users' items) instead 
+	 * of rebuilding the matrix. The patches are merged into a rebuilt matrix
+	 * once they hold more than 1/sMergeRatio of its edges. Drops the cached
+	 * users holding a changed item, the others keep their scores.
+	 */
+	@Override
+	public void refresh() throws TasteException {
+		synchronized (mUpdateLock) {
+			if (mChangedItems.isEmpty() && mChangedUsers.isEmpty()) {
+				return;
+			}
+			long start = System.currentTimeMillis();
+			if (!mChangedItems.isEmpty()) {
+				// items stay in the index once known, even without co-occurrences
+				FastIDSet itemIDs = new FastIDSet(mTransitionMatrix.getSize() + mChangedItems.size());
+				for (long itemID: mTransitionMatrix.getItemIndex().getItemIDs()) {
+					itemIDs.add(itemID);
+				}
+				itemIDs.addAll(mChangedItems);
+				ItemIndex itemIndex = new ItemIndex(itemIDs.toArray());
+				TransitionMatrix base = mTransitionMatrix;
+				FastByIDMap<FastByIDMap<Double>> edges;
+				if (base instanceof PatchedTransitionMatrix) {
+					edges = ((PatchedTransitionMatrix) base).getReplacedEdges();
+					base = ((PatchedTransitionMatrix) base).getBase();
+				} else {
+					edges = new FastByIDMap<FastByIDMap<Double>>();
+				}
+				FastByIDMap<FastByIDMap<Double>> changed = getOutWeights(mChangedItems.toArray());
+				Iterator<Long> it_changed = changed.keySetIterator();
+				while (it_changed.hasNext()) {
+					long itemID = it_changed.next();
+					edges.put(itemID, changed.get(itemID));
+				}
+				PatchedTransitionMatrix patched = new PatchedTransitionMatrix(base, itemIndex, edges);
+				if ((long) patched.getNumReplacedNonZeros() * sMergeRatio > base.getNumNonZeros()) {
+					mTransitionMatrix = compact(rebuild(itemIndex), mWeightStorage);
+				} else {
+					mTransitionMatrix = patched;
+				}
+			}
+			
+			FastIDSet users = new FastIDSet();
+			users.addAll(mChangedUsers);
+			LongPrimitiveIterator it_item = mChangedItems.iterator();
+			while (it_item.hasNext()) {
+				long itemID = it_item.nextLong();
+				try {
+					for (Preference pref: mDataModel.getPreferencesForItem(itemID)) {
+						users.add(pref.getUserID());
+					}
+				} catch (NoSuchItemException e) {
+					// only known to the added preferences
+				}
+			}
+			Iterator<Long> it_user = mAddedPreferences.keySetIterator();
+			while (it_user.hasNext()) {
+				long userID = it_user.next();
+				Iterator<Long> it_added = mAddedPreferences.get(userID).keySetIterator();
+				while (it_added.hasNext()) {
+					if (mChangedItems.contains(it_added.next())) {
+						users.add(userID);
+						break;
+					}
+				}
+			}
+			LongPrimitiveIterator it_invalid = users.iterator();
+			while (it_invalid.hasNext()) {
+				invalidate(it_invalid.nextLong());
+			}
+			log.info("Refreshed {} items and {} users in {} ms", new Object[] {
+					mChangedItems.size(), users.size(), System.currentTimeMillis() - start});
+			mChangedItems.clear();
+			mChangedUsers.clear();
+		}
+	}
+	
+	/**
+	 * With a tolerance, the dropped scores of the user are kept to warm 
+	 * start the next walk, single or in a block, see 
+	 * {@link #WarmWalk(TransitionMatrix, WalkBuffers)}. In top K mode only 
+	 * the users whose full scores are still cached are warm started, a 
+	 * start from the top K alone walks longer than a cold one.
+	 */
+	@Override
+	protected void invalidate(long userID) {
+		if (mTolerance > 0) {
+			FastByIDMap<Double> rank = getCachedFullPreferencesIfPresent(userID);
+			synchronized (mUpdateLock) {
+				if (rank != null) {
+					mWarmStarts.put(userID, rank);
+				} else {
+					mWarmStarts.remove(userID);
+				}
+			}
+		}
+		super.invalidate(userID);
+		mPersonalizedRankCache.remove(userID);
+	}
+	
+	// a warm start is used once, by whichever walk scores the user next
+	private FastByIDMap<Double> removeWarmStart(long userID) {
+		synchronized (mUpdateLock) {
+			return mWarmStarts.remove(userID);
+		}
+	}
+	
+	/**
+	 * @return number of users whose warm start is not used yet
+	 */
+	int getNumWarmStarts() {
+		synchronized (mUpdateLock) {
+			return mWarmStarts.size();
+		}
+	}
+	
+	/**
+	 * @return whether preferences can be updated, i.e. the walk only depends 
+	 * 		on the co-occurrence counts. Models precomputing more from the matrix
+	 * 		return false.
+	 */
+	protected boolean isUpdatable() {
+		return mUpdatable;
+	}
+	
+	private void checkUpdatable() {
+		if (!isUpdatable()) {
+			throw new UnsupportedOperationException(
+					getClass().getSimpleName() + " can not be updated incrementally");
+		}
+	}
+	
+	// C[n][j] and C[j][n] change for every other item j of the user, and C[n][n]
+	private void markChanged(long itemID, FastIDSet otherItemIDs) {
+		mChangedItems.addAll(otherItemIDs);
+		mChangedItems.add(itemID);
+	}
+	
+	/**
+	 * count(i,j) / colSum(i) for the given items i, counted like 
+	 * {@link CooccurrenceBuilder} over the data model and the updates,
+	 * caller holds mUpdateLock
+	 */
+	private FastByIDMap<FastByIDMap<Double>> getOutWeights(long[] itemIDs) throws TasteException {
+		// users who added each item, so that its users are found without scanning all updates
+		FastByIDMap<FastIDSet> addedUsers = new FastByIDMap<FastIDSet>();
+		Iterator<Long> it_user = mAddedPreferences.keySetIterator();
+		while (it_user.hasNext()) {
+			long userID = it_user.next();
+			Iterator<Long> it_added = mAddedPreferences.get(userID).keySetIterator();
+			while (it_added.hasNext()) {
+				long itemID = it_added.next();
+				FastIDSet users = addedUsers.get(itemID);
+				if (users == null) {
+					users = new FastIDSet();
+					addedUsers.put(itemID, users);
+				}
+				users.add(userID);
+			}
+		}
+		
+		FastByIDMap<FastByIDMap<Double>> weights = new FastByIDMap<FastByIDMap<Double>>(itemIDs.length);
+		for (long itemID: itemIDs) {
+			FastIDSet users = new FastIDSet();
+			try {
+				for (Preference pref: mDataModel.getPreferencesForItem(itemID)) {
+					FastIDSet removed = mRemovedPreferences.get(pref.getUserID());
+					if (removed == null || !removed.contains(itemID)) {
+						users.add(pref.getUserID());
+					}
+				}
+			} catch (NoSuchItemException e) {
+				// only known to the added preferences
+			}
+			if (addedUsers.containsKey(itemID)) {
+				users.addAll(addedUsers.get(itemID));
+			}
+			FastByIDMap<Long> counts = new FastByIDMap<Long>();
+			long sum = 0;
+			LongPrimitiveIterator it_cooccurring = users.iterator();
+			while (it_cooccurring.hasNext()) {
+				LongPrimitiveIterator it_j = getItemIDsFromUser(it_cooccurring.nextLong()).iterator();
+				while (it_j.hasNext()) {
+					long j = it_j.nextLong();
+					Long count = counts.get(j);
+					counts.put(j, count == null ? 1L : count + 1);
+					sum ++;
+				}
+			}
+			FastByIDMap<Double> row = new FastByIDMap<Double>(counts.size());
+			Iterator<Long> it_j = counts.keySetIterator();
+			while (it_j.hasNext()) {
+				long j = it_j.next();
+				row.put(j, (double) counts.get(j) / sum);
+			}
+			weights.put(itemID, row);
+		}
+		return weights;
+	}
+	
+	/**
+	 * @return the matrix recounted from the data model and the updates, 
+	 * 		sRebuildItems items at a time, caller holds mUpdateLock
+	 */
+	private CSRStochasticMatrix rebuild(ItemIndex itemIndex) throws TasteException {
+		int size = itemIndex.size();
+		// row i holds the out-going edges of item i, transposed at the end
+		int[] rowPtr = new int[size+1];
+		int[] colIdx = new int[0];
+		double[] weights = new double[0];
+		for (int from=0; from<size; from+=sRebuildItems) {
+			int to = Math.min(size, from + sRebuildItems);
+			FastByIDMap<FastByIDMap<Double>> chunk = getOutWeights(
+					Arrays.copyOfRange(itemIndex.getItemIDs(), from, to));
+			for (int i=from; i<to; i++) {
+				FastByIDMap<Double> row = chunk.get(itemIndex.getItemID(i));
+				int k = rowPtr[i];
+				rowPtr[i+1] = k + row.size();
+				if (rowPtr[i+1] > colIdx.length) {
+					int capacity = Math.max(rowPtr[i+1], colIdx.length * 2);
+					colIdx = Arrays.copyOf(colIdx, capacity);
+					weights = Arrays.copyOf(weights, capacity);
+				}
+				Iterator<Long> it_j = row.keySetIterator();
+				while (it_j.hasNext()) {
+					long j = it_j.next();
+					colIdx[k] = itemIndex.indexOf(j);
+					weights[k] = row.get(j);
+					k ++;
+				}
+			}
+		}
+		int nnz = rowPtr[size];
+		return new CSRStochasticMatrix(itemIndex, rowPtr, Arrays.copyOf(colIdx, nnz),
+				Arrays.copyOf(weights, nnz)).transpose();
+	}
+	
+	private boolean hasDataModelPreference(long userID, long itemID) throws TasteException {
+		try {
+			return mDataModel.getPreferenceValue(userID, itemID) != null;
+		} catch (NoSuchUserException e) {
+			return false;
+		}
+	}
+	
+	// items of the user in the data model and the updates, caller holds mUpdateLock
+	private FastIDSet getItemIDsFromUser(long userID) throws TasteException {
+		FastIDSet itemIDs;
+		try {
+			itemIDs = mDataModel.getItemIDsFromUser(userID).clone();
+		} catch (NoSuchUserException e) {
+			itemIDs = new FastIDSet();
+		}
+		FastIDSet removed = mRemovedPreferences.get(userID);
+		if (removed != null) {
+			itemIDs.removeAll(removed);
+		}
+		FastByIDMap<Float> added = mAddedPreferences.get(userID);
+		if (added != null) {
+			Iterator<Long> it_item = added.keySetIterator();
+			while (it_item.hasNext()) {
+				itemIDs.add(it_item.next());
+			}
+		}
+		return itemIDs;
+	}
+	
+	// preference values of the user in the data model and the updates
+	private FastByIDMap<Float> getPreferenceValues(long userID) throws TasteException {
+		FastByIDMap<Float> preferences = new FastByIDMap<Float>();
+		try {
+			for (Preference pref: mDataModel.getPreferencesFromUser(userID)) {
+				preferences.put(pref.getItemID(), pref.getValue());
+			}
+		} catch (NoSuchUserException e) {
+			// only known to the added preferences
+		}
+		synchronized (mUpdateLock) {
+			FastIDSet removed = mRemovedPreferences.get(userID);
+			if (removed != null) {
+				LongPrimitiveIterator it_item = removed.iterator();
+				while (it_item.hasNext()) {
+					preferences.remove(it_item.nextLong());
+				}
+			}
+			FastByIDMap<Float> added = mAddedPreferences.get(userID);
+			if (added != null) {
+				Iterator<Long> it_item = added.keySetIterator();
+				while (it_item.hasNext()) {
+					long itemID = it_item.next();
+					preferences.put(itemID, added.get(itemID));
+				}
 			}
-			mPersonalizedRankCache.setCache(userID, PersonalizedRank);
 		}
-		return PersonalizedRank;
+		return preferences;
 	}
 	
 	public ColumnVector RandomWalk ( final ColumnVector InitialRank, 
 									final ColumnVector PersonalizedRank ) throws TasteException {
-		ColumnVector PR = Walk(InitialRank, PersonalizedRank, sAlpha);
-		for (int i=1; i<sWalkingSteps; i++) {
-			PR = Walk(PR, PersonalizedRank, sAlpha);
+		TransitionMatrix matrix = mTransitionMatrix;
+		WalkBuffers buffers = getWalkBuffers(matrix);
+		buffers.mPersonalizedRank.assign(PersonalizedRank.toFastByIDMap());
+		buffers.mRank.assign(InitialRank.toFastByIDMap());
+		return new ColumnVector(RandomWalk(matrix, buffers).toFastByIDMap());
+	}
+	
+	/**
+	 * Walks from buffers.mRank, ping-ponging between the two rank buffers, 
+	 * until the L1 residual drops below the tolerance or mMaxSteps is reached.
+	 * The number of steps and the last residual are left in buffers.
+	 * @return the buffer holding the final rank, valid until the next walk of this thread
+	 */
+	private DenseColumnVector RandomWalk(TransitionMatrix matrix, WalkBuffers buffers) {
+		DenseColumnVector PR = buffers.mRank;
+		DenseColumnVector NR = buffers.mNextRank;
+		buffers.mResidual = Double.NaN;
+		int step = 0;
+		while (step < mMaxSteps) {
+			Walk(matrix, PR, buffers.mPersonalizedRank, NR, mAlpha);
+			step ++;
+			DenseColumnVector temp = PR;
+			PR = NR;
+			NR = temp;
+			if (mTolerance > 0) {
+				buffers.mResidual = PR.l1Distance(NR);
+				if (buffers.mResidual < mTolerance) {
+					break;
+				}
+			}
+		}
+		buffers.mSteps = step;
+		return PR;
+	}
+	
+	/**
+	 * Walks from a previous rank X of the user, e.g. before some preferences 
+	 * changed. The fixed point is X plus the sum of (a*M)^k R over the residual
+	 * R = a*M*X + (1-a)*P - X, so only R is propagated, until its L1 norm 
+	 * drops below the tolerance. R is small when few preferences changed.
+	 * @return the buffer holding the final rank, valid until the next walk of this thread
+	 */
+	private DenseColumnVector WarmWalk(TransitionMatrix matrix, WalkBuffers buffers) {
+		DenseColumnVector X = buffers.mRank;
+		DenseColumnVector R = buffers.mNextRank;
+		Walk(matrix, X, buffers.mPersonalizedRank, R, mAlpha);
+		R.axpy(-1.0, X);
+		// the personalized rank is folded into R, its buffer is reused
+		DenseColumnVector NR = buffers.mPersonalizedRank;
+		buffers.mResidual = R.l1Norm();
+		int step = 1;
+		while (buffers.mResidual >= mTolerance && step < mMaxSteps) {
+			X.axpy(1.0, R);
+			matrix.parallelMul(R, NR);
+			NR.scale(mAlpha);
+			step ++;
+			DenseColumnVector temp = R;
+			R = NR;
+			NR = temp;
+			buffers.mResidual = R.l1Norm();
 		}
-	 	return PR;
+		X.axpy(1.0, R);
+		buffers.mSteps = step;
+		return X;
 	}
 	
-	private ColumnVector Walk ( final ColumnVector InitialRank, 
-			final ColumnVector PersonalizedRank,
-			double alpha) throws TasteException {
+	private void Walk ( final TransitionMatrix matrix,
+			final DenseColumnVector InitialRank, 
+			final DenseColumnVector PersonalizedRank,
+			DenseColumnVector NextRank,
+			double alpha) {
 		// NR = a*SM*IR + (1-a)*P 
-		//    = (1-a)( a/(1-a)*SM*IR + P )
-		ColumnVector NextRank = mStochasticMatrix
-				.mul(InitialRank)
-				.dotMul(alpha / (1.0-alpha))
-				.dotAdd(PersonalizedRank)
-				.dotMul(1.0-alpha);
-		return NextRank;
+		matrix.parallelMul(InitialRank, NextRank);
+		NextRank.scaleAndAxpy(alpha, 1.0-alpha, PersonalizedRank);
 	}
+
 	
-	public class StochasticMatrix {
+	private WalkBuffers getWalkBuffers(TransitionMatrix matrix) {
+		WalkBuffers buffers = mWalkBuffers.get();
+		if (buffers == null || buffers.mItemIndex != matrix.getItemIndex()) {
+			buffers = new WalkBuffers(matrix.getItemIndex());
+			mWalkBuffers.set(buffers);
+		}
+		return buffers;
+	}
+	
+	// per thread dense vectors reused by every walk of that thread
+	private static class WalkBuffers {
+		private final ItemIndex mItemIndex;
+		private final DenseColumnVector mRank;
+		private final DenseColumnVector mNextRank;
+		private final DenseColumnVector mPersonalizedRank;
+		private int mSteps;
+		private double mResidual;
+		
+		public WalkBuffers(ItemIndex itemIndex) {
+			mItemIndex = itemIndex;
+			mRank = new DenseColumnVector(itemIndex);
+			mNextRank = new DenseColumnVector(itemIndex);
+			mPersonalizedRank = new DenseColumnVector(itemIndex);
+		}
+	}
+	
+	/**
+	 * Hash map co-occurrence matrix, the reference the compressed matrices 
+	 * are checked against, not kept by the model
+	 */
+	public static class StochasticMatrix {
 		private final FastByIDMap<FastByIDMap<Long>> mMatrix;
 		private final FastByIDMap<Long> mColSum;
 		
@@ -140,6 +972,24 @@ public class PersonalizedPageRankModel extends AbstractRecommenderModel {
 			mColSum = new FastByIDMap<Long>(sInitialSize, sLoadFactor);
 		}
 		
+		/**
+		 * @param matrix co-occurrence counts, e.g. from {@link CooccurrenceBuilder}, 
+		 * 		taken over without copying
+		 */
+		public StochasticMatrix(FastByIDMap<FastByIDMap<Long>> matrix) {
+			mMatrix = matrix;
+			mColSum = new FastByIDMap<Long>(matrix.size(), sLoadFactor);
+			Iterator<Long> i_set = mMatrix.keySetIterator();
+			while (i_set.hasNext()) {
+				long i = i_set.next();
+				long sum = 0;
+				for (long value: mMatrix.get(i).values()) {
+					sum += value;
+				}
+				mColSum.put(i, sum);
+			}
+		}
+		
 		public int getSize() {
 			return mMatrix.size();
 		}
@@ -163,6 +1013,34 @@ public class PersonalizedPageRankModel extends AbstractRecommenderModel {
 			}
 		}
 		
+		/**
+		 * Adds delta to C[i][j] and the column sum of i, counts dropping to 
+		 * zero are removed
+		 */
+		public void add(long i, long j, long delta) {
+			FastByIDMap<Long> column = mMatrix.get(i);
+			if (column == null) {
+				column = new FastByIDMap<Long>();
+				mMatrix.put(i, column);
+			}
+			Long oldValue = column.get(j);
+			long value = (oldValue == null ? 0 : oldValue) + delta;
+			if (value < 0) {
+				throw new IllegalArgumentException("negative count at " + i + "," + j);
+			}
+			if (value == 0) {
+				column.remove(j);
+				if (column.isEmpty()) {
+					mMatrix.remove(i);
+				}
+			} else {
+				column.put(j, value);
+			}
+			if (addToColSum(i, delta) == 0) {
+				mColSum.remove(i);
+			}
+		}
+		
 		private Iterator<Long> getRows(long i) {
 			if (mMatrix.containsKey(i)) {
 				return mMatrix.get(i).keySetIterator();
@@ -263,8 +1141,12 @@ public class PersonalizedPageRankModel extends AbstractRecommenderModel {
 	}
 	
 	public static PersonalizedPageRankModel getInstance(DataModel dataModel) {
+		return getInstance(dataModel, new RandomWalkParameters());
+	}
+
+	public static PersonalizedPageRankModel getInstance(DataModel dataModel, RandomWalkParameters parameters) {
 		try {
-			return new PersonalizedPageRankModel(dataModel);
+			return new PersonalizedPageRankModel(dataModel, parameters);
 		} catch (TasteException e) {
 			e.printStackTrace();
 			return null;
@@ -277,8 +1159,19 @@ public class PersonalizedPageRankModel extends AbstractRecommenderModel {
 	 * @return a PersonalizedPageRankModel
 	 */
 	public static PersonalizedPageRankModel getInstance(DataModel dataModel, FastByIDMap<Double> reWeight) {
+		return getInstance(dataModel, new RandomWalkParameters(), reWeight);
+	}
+
+	/**
+	 * @param dataModel data model
+	 * @param parameters walk parameters
+	 * @param reWeight weight factor of each item, dot multiplied to personalized rank
+	 * @return a PersonalizedPageRankModel
+	 */
+	public static PersonalizedPageRankModel getInstance(DataModel dataModel, 
+			RandomWalkParameters parameters, FastByIDMap<Double> reWeight) {
 		try {
-			return new PersonalizedPageRankModel(dataModel, reWeight);
+			return new PersonalizedPageRankModel(dataModel, parameters, reWeight);
 		} catch (TasteException e) {
 			e.printStackTrace();
 			return null;
@@ -286,10 +1179,47 @@ public class PersonalizedPageRankModel extends AbstractRecommenderModel {
 	}
 
 	/**
-	 * @return the stochasticMatrix
+	 * @return probability of following an edge instead of restarting
+	 */
+	public double getAlpha() {
+		return mAlpha;
+	}
+
+	/**
+	 * @return number of walking steps taken per user so far
+	 */
+	public RunningAverage getWalkingSteps() {
+		return mWalkingSteps;
+	}
+
+	/**
+	 * @return summary of the scoring work so far, reported once per evaluation
+	 * 		instead of logging every user
+	 */
+	public String getStatistics() {
+		return "users walked=" + mWalkingSteps.getCount() + ", steps per user=" + mWalkingSteps.getAverage();
+	}
+
+	/**
+	 * @return number of co-occurrence edges the matrix was built from before
+	 * 		sparsification, -1 if it was loaded from a snapshot or given
+	 */
+	public long getNumEdges() {
+		return mNumEdges;
+	}
+
+	/**
+	 * @return number of co-occurrence edges kept by sparsification, see {@link #getNumEdges()}
+	 */
+	public long getNumKeptEdges() {
+		return mNumKeptEdges;
+	}
+
+	/**
+	 * @return the transition matrix used by the walk
 	 */
-	public StochasticMatrix getStochasticMatrix() {
-		return mStochasticMatrix;
+	public TransitionMatrix getTransitionMatrix() {
+		return mTransitionMatrix;
 	}
 
 	/**
@@ -1,5 +1,6 @@
 package com.msiiplab.recsys.rwr;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 
@@ -7,8 +8,10 @@ import org.apache.mahout.cf.taste.common.NoSuchItemException;
 import org.apache.mahout.cf.taste.common.Refreshable;
 import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.eval.RecommenderBuilder;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
 import org.apache.mahout.cf.taste.impl.common.FastIDSet;
 import org.apache.mahout.cf.taste.impl.recommender.AbstractRecommender;
+import org.apache.mahout.cf.taste.impl.recommender.GenericRecommendedItem;
 import org.apache.mahout.cf.taste.impl.recommender.TopItems;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.model.PreferenceArray;
@@ -38,13 +41,32 @@ public class PersonalizedPageRankRecommender extends AbstractRecommender{
 		Preconditions.checkArgument(howMany>=1, "howMany must be >= 1");
 		log.debug("Recommend items for user '{}'", userID);
 		
+		if (rescorer == null && mModel.getTopK() >= howMany) {
+			TopKPreferences topK = mModel.getTopKPreferencesForUser(userID);
+			if (topK.size() >= howMany) {
+				List<RecommendedItem> topItems = new ArrayList<RecommendedItem>(howMany);
+				for (int k=0; k<howMany; k++) {
+					topItems.add(new GenericRecommendedItem(topK.getItemID(k), (float) topK.getValue(k)));
+				}
+				log.debug("Recommendations are: {}", topItems);
+				return topItems;
+			}
+		}
+		
 		PreferenceArray preferencesFromUser = getDataModel().getPreferencesFromUser(userID);
 		FastIDSet possibleItemIDs = getAllOtherItems(userID, preferencesFromUser);
 		
+		TopItems.Estimator<Long> estimator;
+		if (mModel.getTopK() > 0) {
+			// one lookup of the full scores for all items, they are only cached briefly in top K mode
+			estimator = new MapEstimator(mModel.getCachedPreferencesForUser(userID));
+		} else {
+			estimator = new Estimator(userID);
+		}
 		List<RecommendedItem> topItems = TopItems.getTopItems(howMany, 
 				possibleItemIDs.iterator(),
 				rescorer, 
-				new Estimator(userID));
+				estimator);
 		log.debug("Recommendations are: {}", topItems);		
 		
 		return topItems;
@@ -60,9 +82,43 @@ public class PersonalizedPageRankRecommender extends AbstractRecommender{
 		}
 	}
 
+	/**
+	 * Updates the model only, the data model is left as it is
+	 */
+	@Override
+	public void setPreference(long userID, long itemID, float value)
+			throws TasteException {
+		mModel.setPreference(userID, itemID, value);
+	}
+
+	@Override
+	public void removePreference(long userID, long itemID)
+			throws TasteException {
+		mModel.removePreference(userID, itemID);
+	}
+
+	/**
+	 * Applies the preferences set or removed since the last refresh
+	 */
 	@Override
 	public void refresh(Collection<Refreshable> alreadyRefreshed) {
-		// TODO Auto-generated method stub
+		try {
+			mModel.refresh();
+		} catch (TasteException e) {
+			log.warn("Can not refresh the model", e);
+		}
+	}
+	
+	/**
+	 * Scores the given users ahead of their recommend() calls, in batches 
+	 * when the model supports it
+	 */
+	public void prefetch(long[] userIDs) throws TasteException {
+		mModel.prefetchPreferencesForUsers(userIDs);
+	}
+	
+	public RecommenderModel getModel() {
+		return mModel;
 	}
 	
 	public class Estimator implements TopItems.Estimator<Long> {
@@ -76,13 +132,29 @@ public class PersonalizedPageRankRecommender extends AbstractRecommender{
 		}
 	}
 	
+	private static class MapEstimator implements TopItems.Estimator<Long> {
+		private final FastByIDMap<Double> mPreferences;
+		public MapEstimator(FastByIDMap<Double> preferences) {
+			mPreferences = preferences;
+		}
+		@Override
+		public double estimate(Long itemID) throws TasteException {
+			Double value = mPreferences.get(itemID);
+			return value == null ? 0 : (float) value.doubleValue();
+		}
+	}
+	
 	public static RecommenderBuilder getRecommenderBuilder() {
+		return getRecommenderBuilder(new RandomWalkParameters());
+	}
+	
+	public static RecommenderBuilder getRecommenderBuilder(final RandomWalkParameters parameters) {
 		return new RecommenderBuilder() {
 			@Override
 			public Recommender buildRecommender(DataModel dataModel)
 					throws TasteException {
 				return new PersonalizedPageRankRecommender( dataModel, 
-						PersonalizedPageRankModel.getInstance(dataModel));
+						PersonalizedPageRankModel.getInstance(dataModel, parameters));
 			}
 		};
 	}
@@ -0,0 +1,250 @@
+package com.msiiplab.recsys.rwr;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Tuning knobs of {@link PersonalizedPageRankModel}, the defaults reproduce
+ * the original fixed 6 step walk with alpha = 0.9.
+ */
+public class RandomWalkParameters {
+
+	public static final double DEFAULT_ALPHA = 0.9;
+	public static final int DEFAULT_MAX_STEPS = 6;
+	public static final double DEFAULT_TOLERANCE = 0.0;
+	public static final double DEFAULT_EPSILON = 1e-4;
+	public static final int DEFAULT_BATCH_SIZE = 64;
+	public static final int DEFAULT_NUM_WALKS = 10000;
+	public static final int DEFAULT_BASIS_SIZE = 200;
+	public static final int DEFAULT_TOP_K = 0;
+	public static final int DEFAULT_CACHE_SIZE = 0;
+	public static final long DEFAULT_CACHE_MEMORY = 0;
+	public static final WeightStorage DEFAULT_WEIGHT_STORAGE = WeightStorage.DOUBLE;
+	public static final int DEFAULT_MAX_NEIGHBORS = 0;
+	public static final int DEFAULT_MIN_COUNT = 1;
+	public static final CooccurrenceSparsifier.Ranking DEFAULT_NEIGHBOR_RANKING = 
+			CooccurrenceSparsifier.Ranking.COUNT;
+
+	private double mAlpha = DEFAULT_ALPHA;
+	private int mMaxSteps = DEFAULT_MAX_STEPS;
+	private double mTolerance = DEFAULT_TOLERANCE;
+	private double mEpsilon = DEFAULT_EPSILON;
+	private int mBatchSize = DEFAULT_BATCH_SIZE;
+	private int mNumWalks = DEFAULT_NUM_WALKS;
+	private int mBasisSize = DEFAULT_BASIS_SIZE;
+	private int mTopK = DEFAULT_TOP_K;
+	private int mCacheSize = DEFAULT_CACHE_SIZE;
+	private long mCacheMemory = DEFAULT_CACHE_MEMORY;
+	private String mSnapshotDir = null;
+	private WeightStorage mWeightStorage = DEFAULT_WEIGHT_STORAGE;
+	private int mMaxNeighbors = DEFAULT_MAX_NEIGHBORS;
+	private int mMinCount = DEFAULT_MIN_COUNT;
+	private CooccurrenceSparsifier.Ranking mNeighborRanking = DEFAULT_NEIGHBOR_RANKING;
+
+	/**
+	 * @return probability of following an edge instead of restarting
+	 */
+	public double getAlpha() {
+		return mAlpha;
+	}
+
+	public RandomWalkParameters setAlpha(double alpha) {
+		Preconditions.checkArgument(alpha > 0 && alpha < 1, "alpha must be in (0, 1)");
+		mAlpha = alpha;
+		return this;
+	}
+
+	/**
+	 * @return number of walking steps, or the upper bound of it when a tolerance is set
+	 */
+	public int getMaxSteps() {
+		return mMaxSteps;
+	}
+
+	public RandomWalkParameters setMaxSteps(int maxSteps) {
+		Preconditions.checkArgument(maxSteps >= 1, "maxSteps must be >= 1");
+		mMaxSteps = maxSteps;
+		return this;
+	}
+
+	/**
+	 * @return L1 residual between two steps at which the walk stops,
+	 * 		0 walks exactly {@link #getMaxSteps()} steps
+	 */
+	public double getTolerance() {
+		return mTolerance;
+	}
+
+	public RandomWalkParameters setTolerance(double tolerance) {
+		Preconditions.checkArgument(tolerance >= 0, "tolerance must be >= 0");
+		mTolerance = tolerance;
+		return this;
+	}
+
+	/**
+	 * @return residual per out-going edge below which {@link ForwardPushPageRankModel} 
+	 * 		stops pushing an item
+	 */
+	public double getEpsilon() {
+		return mEpsilon;
+	}
+
+	public RandomWalkParameters setEpsilon(double epsilon) {
+		Preconditions.checkArgument(epsilon > 0, "epsilon must be > 0");
+		mEpsilon = epsilon;
+		return this;
+	}
+
+	/**
+	 * @return number of users walked together by one pass over the matrix 
+	 * 		when users are prefetched
+	 */
+	public int getBatchSize() {
+		return mBatchSize;
+	}
+
+	public RandomWalkParameters setBatchSize(int batchSize) {
+		Preconditions.checkArgument(batchSize >= 1, "batchSize must be >= 1");
+		mBatchSize = batchSize;
+		return this;
+	}
+
+	/**
+	 * @return number of random walks simulated per user by {@link MonteCarloPageRankModel}
+	 */
+	public int getNumWalks() {
+		return mNumWalks;
+	}
+
+	public RandomWalkParameters setNumWalks(int numWalks) {
+		Preconditions.checkArgument(numWalks >= 1, "numWalks must be >= 1");
+		mNumWalks = numWalks;
+		return this;
+	}
+
+	/**
+	 * @return number of entries kept per item by {@link ItemBasisPageRankModel}
+	 */
+	public int getBasisSize() {
+		return mBasisSize;
+	}
+
+	public RandomWalkParameters setBasisSize(int basisSize) {
+		Preconditions.checkArgument(basisSize >= 1, "basisSize must be >= 1");
+		mBasisSize = basisSize;
+		return this;
+	}
+
+	/**
+	 * @return number of best scores cached per user, 0 caches the full scores
+	 */
+	public int getTopK() {
+		return mTopK;
+	}
+
+	public RandomWalkParameters setTopK(int topK) {
+		Preconditions.checkArgument(topK >= 0, "topK must be >= 0");
+		mTopK = topK;
+		return this;
+	}
+
+	/**
+	 * @return number of users whose scores are cached, 0 for no limit
+	 */
+	public int getCacheSize() {
+		return mCacheSize;
+	}
+
+	public RandomWalkParameters setCacheSize(int cacheSize) {
+		Preconditions.checkArgument(cacheSize >= 0, "cacheSize must be >= 0");
+		mCacheSize = cacheSize;
+		return this;
+	}
+
+	/**
+	 * @return estimated bytes of cached scores, 0 for no limit
+	 */
+	public long getCacheMemory() {
+		return mCacheMemory;
+	}
+
+	public RandomWalkParameters setCacheMemory(long cacheMemory) {
+		Preconditions.checkArgument(cacheMemory >= 0, "cacheMemory must be >= 0");
+		mCacheMemory = cacheMemory;
+		return this;
+	}
+
+	/**
+	 * @return directory of transition matrix snapshots, null builds the matrix every time
+	 */
+	public String getSnapshotDir() {
+		return mSnapshotDir;
+	}
+
+	public RandomWalkParameters setSnapshotDir(String snapshotDir) {
+		mSnapshotDir = snapshotDir;
+		return this;
+	}
+
+	/**
+	 * @return precision of the transition matrix weights walked over
+	 */
+	public WeightStorage getWeightStorage() {
+		return mWeightStorage;
+	}
+
+	public RandomWalkParameters setWeightStorage(WeightStorage weightStorage) {
+		Preconditions.checkNotNull(weightStorage, "weightStorage must not be null");
+		mWeightStorage = weightStorage;
+		return this;
+	}
+
+	/**
+	 * @return co-occurring items kept per item, 0 keeps all
+	 */
+	public int getMaxNeighbors() {
+		return mMaxNeighbors;
+	}
+
+	public RandomWalkParameters setMaxNeighbors(int maxNeighbors) {
+		Preconditions.checkArgument(maxNeighbors >= 0, "maxNeighbors must be >= 0");
+		mMaxNeighbors = maxNeighbors;
+		return this;
+	}
+
+	/**
+	 * @return number of users below which a co-occurrence is dropped
+	 */
+	public int getMinCount() {
+		return mMinCount;
+	}
+
+	public RandomWalkParameters setMinCount(int minCount) {
+		Preconditions.checkArgument(minCount >= 1, "minCount must be >= 1");
+		mMinCount = minCount;
+		return this;
+	}
+
+	/**
+	 * @return how the kept co-occurring items are chosen
+	 */
+	public CooccurrenceSparsifier.Ranking getNeighborRanking() {
+		return mNeighborRanking;
+	}
+
+	public RandomWalkParameters setNeighborRanking(CooccurrenceSparsifier.Ranking neighborRanking) {
+		Preconditions.checkNotNull(neighborRanking, "neighborRanking must not be null");
+		mNeighborRanking = neighborRanking;
+		return this;
+	}
+
+	@Override
+	public String toString() {
+		return "alpha=" + mAlpha + ", maxSteps=" + mMaxSteps + ", tolerance=" + mTolerance 
+				+ ", epsilon=" + mEpsilon + ", batchSize=" + mBatchSize
+				+ ", numWalks=" + mNumWalks + ", basisSize=" + mBasisSize
+				+ ", topK=" + mTopK + ", cacheSize=" + mCacheSize + ", cacheMemory=" + mCacheMemory
+				+ ", snapshotDir=" + mSnapshotDir + ", weightStorage=" + mWeightStorage
+				+ ", maxNeighbors=" + mMaxNeighbors + ", minCount=" + mMinCount 
+				+ ", neighborRanking=" + mNeighborRanking;
+	}
+}
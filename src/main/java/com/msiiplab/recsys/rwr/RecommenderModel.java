@@ -11,4 +11,42 @@ public interface RecommenderModel {
 	
 	public FastByIDMap<Double> getCachedPreferencesForUser(long userID) throws TasteException;
 	
+	/**
+	 * Computes and caches the preferences of all given users, block by block
+	 * of {@link #getBatchSize()} users, each block is cached as it is done
+	 */
+	public void prefetchPreferencesForUsers(long[] userIDs) throws TasteException;
+	
+	/**
+	 * @return number of users scored together by one block of a prefetch
+	 */
+	public int getBatchSize();
+	
+	/**
+	 * @return number of best scores kept per user, 0 if the full scores are kept
+	 */
+	public int getTopK();
+	
+	/**
+	 * @return the cached best scores of the user, only in top K mode
+	 */
+	public TopKPreferences getTopKPreferencesForUser(long userID) throws TasteException;
+	
+	/**
+	 * Adds or changes a preference, taken into account after {@link #refresh()}
+	 * @throws UnsupportedOperationException if the model can not be updated
+	 */
+	public void setPreference(long userID, long itemID, float value) throws TasteException;
+	
+	/**
+	 * Removes a preference, taken into account after {@link #refresh()}
+	 * @throws UnsupportedOperationException if the model can not be updated
+	 */
+	public void removePreference(long userID, long itemID) throws TasteException;
+	
+	/**
+	 * Applies the preference updates and drops the cached scores they affect
+	 */
+	public void refresh() throws TasteException;
+	
 }
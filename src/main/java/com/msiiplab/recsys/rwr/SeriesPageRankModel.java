@@ -0,0 +1,249 @@
+package com.msiiplab.recsys.rwr;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.eval.RecommenderBuilder;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
+import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.Preference;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.msiiplab.recsys.callforpaper.MetaData;
+
+/**
+ * Personalized PageRank over series instead of calls.
+ *
+ * A user prefers a series with the sum of the user's preferences for its calls,
+ * the walk runs over the co-occurrence graph of series, and the rank of a
+ * series is then split among its calls in the training data, by their
+ * number of users or by how recent their deadlines are. Calls without a
+ * known series are a series of their own.
+ */
+public class SeriesPageRankModel extends AbstractRecommenderModel {
+
+	public static final Logger log = LoggerFactory.getLogger(SeriesPageRankModel.class);
+
+	/**
+	 * How the rank of a series is split among its calls
+	 */
+	public enum Share {
+		/** in proportion to the users of each call, plus one */
+		POPULARITY,
+		/** halved for each year the deadline is older than the latest of the series */
+		DEADLINE
+	}
+
+	private static final double sSecondsPerYear = 365.0 * 24 * 3600;
+
+	private final DataModel mDataModel;
+	private final int mNumItems;
+	private final PersonalizedPageRankModel mSeriesModel;
+	// calls of each series in the training data, with their share of its rank
+	private final FastByIDMap<long[]> mSeriesItems;
+	private final FastByIDMap<double[]> mSeriesShares;
+
+	/**
+	 * @param seriesMap series of each call
+	 * @param timeMap deadline of each call in seconds, only used for DEADLINE
+	 */
+	protected SeriesPageRankModel(DataModel dataModel, RandomWalkParameters parameters,
+			FastByIDMap<Long> seriesMap, FastByIDMap<Long> timeMap, Share share) throws TasteException {
+		super();
+		setTopK(parameters.getTopK());
+		mUserPreferenceCache = new ConcurrentUserCache<FastByIDMap<Double>>(
+				parameters.getCacheSize(), parameters.getCacheMemory(),
+				new ConcurrentUserCache.PreferenceWeigher());
+		mDataModel = dataModel;
+		mNumItems = dataModel.getNumItems();
+
+		// series of each training call
+		FastByIDMap<Long> itemSeries = new FastByIDMap<Long>(dataModel.getNumItems());
+		FastByIDMap<FastIDSet> seriesItems = new FastByIDMap<FastIDSet>();
+		LongPrimitiveIterator it_item = dataModel.getItemIDs();
+		while (it_item.hasNext()) {
+			long itemID = it_item.nextLong();
+			long seriesID = getSeriesID(seriesMap, itemID);
+			itemSeries.put(itemID, seriesID);
+			FastIDSet items = seriesItems.get(seriesID);
+			if (items == null) {
+				items = new FastIDSet();
+				seriesItems.put(seriesID, items);
+			}
+			items.add(itemID);
+		}
+
+		mSeriesItems = new FastByIDMap<long[]>(seriesItems.size());
+		mSeriesShares = new FastByIDMap<double[]>(seriesItems.size());
+		Iterator<Long> it_series = seriesItems.keySetIterator();
+		while (it_series.hasNext()) {
+			long seriesID = it_series.next();
+			long[] items = seriesItems.get(seriesID).toArray();
+			Arrays.sort(items);
+			mSeriesItems.put(seriesID, items);
+			mSeriesShares.put(seriesID, getShares(dataModel, items, timeMap, share));
+		}
+
+		mSeriesModel = PersonalizedPageRankModel.getInstance(
+				getSeriesDataModel(dataModel, itemSeries), parameters);
+		if (mSeriesModel == null) {
+			throw new TasteException("can not build the series walk");
+		}
+		log.info("Walking over {} series instead of {} calls",
+				mSeriesItems.size(), dataModel.getNumItems());
+	}
+
+	// calls without a series get one of their own, below every real series ID
+	private static long getSeriesID(FastByIDMap<Long> seriesMap, long itemID) {
+		Long seriesID = seriesMap.get(itemID);
+		return seriesID == null ? -1 - itemID : seriesID;
+	}
+
+	// shares of the calls of a series, summing to 1
+	private static double[] getShares(DataModel dataModel, long[] items,
+			FastByIDMap<Long> timeMap, Share share) throws TasteException {
+		double[] shares = new double[items.length];
+		if (share == Share.POPULARITY) {
+			for (int k=0; k<items.length; k++) {
+				shares[k] = dataModel.getNumUsersWithPreferenceFor(items[k]) + 1;
+			}
+		} else {
+			long latest = Long.MIN_VALUE;
+			for (long itemID: items) {
+				Long time = timeMap.get(itemID);
+				if (time != null) {
+					latest = Math.max(latest, time);
+				}
+			}
+			for (int k=0; k<items.length; k++) {
+				// calls without a deadline count as the latest
+				Long time = timeMap.get(items[k]);
+				double age = time == null ? 0.0 : (latest - time) / sSecondsPerYear;
+				shares[k] = Math.pow(0.5, age);
+			}
+		}
+		double sum = 0.0;
+		for (double value: shares) {
+			sum += value;
+		}
+		for (int k=0; k<shares.length; k++) {
+			shares[k] /= sum;
+		}
+		return shares;
+	}
+
+	// users with the summed preferences for the series of their calls
+	private static DataModel getSeriesDataModel(DataModel dataModel, FastByIDMap<Long> itemSeries)
+			throws TasteException {
+		FastByIDMap<PreferenceArray> userData = new FastByIDMap<PreferenceArray>(dataModel.getNumUsers());
+		LongPrimitiveIterator it_user = dataModel.getUserIDs();
+		while (it_user.hasNext()) {
+			long userID = it_user.nextLong();
+			FastByIDMap<Float> values = new FastByIDMap<Float>();
+			for (Preference pref: dataModel.getPreferencesFromUser(userID)) {
+				long seriesID = itemSeries.get(pref.getItemID());
+				Float value = values.get(seriesID);
+				values.put(seriesID, value == null ? pref.getValue() : value + pref.getValue());
+			}
+			PreferenceArray prefs = new GenericUserPreferenceArray(values.size());
+			prefs.setUserID(0, userID);
+			int k = 0;
+			Iterator<Long> it_series = values.keySetIterator();
+			while (it_series.hasNext()) {
+				long seriesID = it_series.next();
+				prefs.setItemID(k, seriesID);
+				prefs.setValue(k, values.get(seriesID));
+				k ++;
+			}
+			userData.put(userID, prefs);
+		}
+		return new GenericDataModel(userData);
+	}
+
+	@Override
+	protected FastByIDMap<Double> getPreferencesForUser(long userID) throws TasteException {
+		return expand(mSeriesModel.getPreferencesForUser(userID));
+	}
+
+	// blocks as large as those of the series walk
+	@Override
+	public int getBatchSize() {
+		return mSeriesModel.getBatchSize();
+	}
+
+	// the series walk scores users in blocks
+	@Override
+	protected FastByIDMap<FastByIDMap<Double>> getPreferencesForUsers(long[] userIDs) throws TasteException {
+		FastByIDMap<FastByIDMap<Double>> preferences = mSeriesModel.getPreferencesForUsers(userIDs);
+		for (Map.Entry<Long, FastByIDMap<Double>> entry: preferences.entrySet()) {
+			entry.setValue(expand(entry.getValue()));
+		}
+		return preferences;
+	}
+
+	/**
+	 * @return the ranks of the series split among their calls
+	 */
+	private FastByIDMap<Double> expand(FastByIDMap<Double> seriesRank) {
+		FastByIDMap<Double> rank = new FastByIDMap<Double>(mNumItems, sLoadFactor);
+		Iterator<Long> it_series = seriesRank.keySetIterator();
+		while (it_series.hasNext()) {
+			long seriesID = it_series.next();
+			long[] items = mSeriesItems.get(seriesID);
+			if (items == null) {
+				continue;
+			}
+			double value = seriesRank.get(seriesID);
+			double[] shares = mSeriesShares.get(seriesID);
+			for (int k=0; k<items.length; k++) {
+				rank.put(items[k], value * shares[k]);
+			}
+		}
+		return rank;
+	}
+
+	// the calls a recommender over the data model ranks
+	@Override
+	protected FastIDSet getCandidateItemIDs(long userID) throws TasteException {
+		return getCandidateItemIDs(mDataModel, userID);
+	}
+
+	/**
+	 * @return the walk over series, its items are series IDs
+	 */
+	public PersonalizedPageRankModel getSeriesModel() {
+		return mSeriesModel;
+	}
+
+	public static SeriesPageRankModel getInstance(DataModel dataModel, RandomWalkParameters parameters,
+			MetaData metaData, Share share) {
+		try {
+			return new SeriesPageRankModel(dataModel, parameters,
+					metaData.getSeriesMap(), metaData.getTimeMap(), share);
+		} catch (TasteException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	public static RecommenderBuilder getRecommenderBuilder(final RandomWalkParameters parameters,
+			final MetaData metaData, final Share share) {
+		return new RecommenderBuilder() {
+			@Override
+			public Recommender buildRecommender(DataModel dataModel)
+					throws TasteException {
+				return new PersonalizedPageRankRecommender( dataModel,
+						SeriesPageRankModel.getInstance(dataModel, parameters, metaData, share));
+			}
+		};
+	}
+}
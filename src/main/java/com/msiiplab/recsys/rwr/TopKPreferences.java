@@ -0,0 +1,150 @@
+package com.msiiplab.recsys.rwr;
+
+import java.util.Iterator;
+
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+
+/**
+ * The K best scores of a user in primitive arrays, ordered by descending score.
+ */
+public class TopKPreferences {
+	private final long[] mItemIDs;
+	private final double[] mValues;
+
+	public TopKPreferences(long[] itemIDs, double[] values) {
+		mItemIDs = itemIDs;
+		mValues = values;
+	}
+
+	/**
+	 * @param preferences scores of all items
+	 * @param k number of scores to keep
+	 * @param excluded items never kept, e.g. those the user already has
+	 */
+	public static TopKPreferences getInstance(FastByIDMap<Double> preferences, int k, FastIDSet excluded) {
+		Heap heap = new Heap(k);
+		Iterator<Long> it_item = preferences.keySetIterator();
+		while (it_item.hasNext()) {
+			long itemID = it_item.next();
+			if (!excluded.contains(itemID)) {
+				heap.offer(itemID, preferences.get(itemID));
+			}
+		}
+		return heap.toTopKPreferences();
+	}
+
+	/**
+	 * @param preferences scores of the items, candidates without a score score 0
+	 * @param k number of scores to keep
+	 * @param candidates the only items kept, e.g. those a recommender would rank
+	 */
+	public static TopKPreferences getCandidateInstance(FastByIDMap<Double> preferences, int k, 
+			FastIDSet candidates) {
+		Heap heap = new Heap(k);
+		LongPrimitiveIterator it_item = candidates.iterator();
+		while (it_item.hasNext()) {
+			long itemID = it_item.nextLong();
+			Double value = preferences.get(itemID);
+			heap.offer(itemID, value == null ? 0.0 : value);
+		}
+		return heap.toTopKPreferences();
+	}
+
+	// min-heap on the value, the root is the worst score kept so far
+	private static class Heap {
+		private final long[] mHeapIDs;
+		private final double[] mHeapValues;
+		private int mSize;
+
+		public Heap(int k) {
+			mHeapIDs = new long[k];
+			mHeapValues = new double[k];
+			mSize = 0;
+		}
+
+		public void offer(long itemID, double value) {
+			if (mSize < mHeapIDs.length) {
+				siftUp(mHeapIDs, mHeapValues, mSize, itemID, value);
+				mSize ++;
+			} else if (value > mHeapValues[0]) {
+				siftDown(mHeapIDs, mHeapValues, mSize, itemID, value);
+			}
+		}
+
+		// pop the heap from the back, giving descending order
+		public TopKPreferences toTopKPreferences() {
+			long[] sortedIDs = new long[mSize];
+			double[] sortedValues = new double[mSize];
+			for (int n=mSize; n>0; n--) {
+				sortedIDs[n-1] = mHeapIDs[0];
+				sortedValues[n-1] = mHeapValues[0];
+				siftDown(mHeapIDs, mHeapValues, n-1, mHeapIDs[n-1], mHeapValues[n-1]);
+			}
+			return new TopKPreferences(sortedIDs, sortedValues);
+		}
+	}
+
+	private static void siftUp(long[] itemIDs, double[] values, int position, long itemID, double value) {
+		while (position > 0) {
+			int parent = (position - 1) >>> 1;
+			if (values[parent] <= value) {
+				break;
+			}
+			itemIDs[position] = itemIDs[parent];
+			values[position] = values[parent];
+			position = parent;
+		}
+		itemIDs[position] = itemID;
+		values[position] = value;
+	}
+
+	// replaces the root of a heap of the given size and restores the order
+	private static void siftDown(long[] itemIDs, double[] values, int size, long itemID, double value) {
+		int position = 0;
+		while (true) {
+			int child = 2 * position + 1;
+			if (child >= size) {
+				break;
+			}
+			if (child + 1 < size && values[child+1] < values[child]) {
+				child ++;
+			}
+			if (value <= values[child]) {
+				break;
+			}
+			itemIDs[position] = itemIDs[child];
+			values[position] = values[child];
+			position = child;
+		}
+		if (size > 0) {
+			itemIDs[position] = itemID;
+			values[position] = value;
+		}
+	}
+
+	public int size() {
+		return mItemIDs.length;
+	}
+
+	public long getItemID(int k) {
+		return mItemIDs[k];
+	}
+
+	public double getValue(int k) {
+		return mValues[k];
+	}
+
+	/**
+	 * @return the score of the item, or NaN if it is not among the K best
+	 */
+	public double get(long itemID) {
+		for (int k=0; k<mItemIDs.length; k++) {
+			if (mItemIDs[k] == itemID) {
+				return mValues[k];
+			}
+		}
+		return Double.NaN;
+	}
+}
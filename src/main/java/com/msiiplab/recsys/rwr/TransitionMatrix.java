@@ -0,0 +1,43 @@
+package com.msiiplab.recsys.rwr;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+
+/**
+ * Column stochastic transition matrix of a random walk over items.
+ */
+public interface TransitionMatrix {
+
+	public int getSize();
+
+	/**
+	 * @return number of stored edges, which bounds the work of a step
+	 */
+	public int getNumNonZeros();
+
+	/**
+	 * @return M*V, where V(i) is spread over the out-going edges of item i
+	 */
+	public ColumnVector mul(ColumnVector V) throws TasteException;
+
+	public ItemIndex getItemIndex();
+
+	/**
+	 * Dense product result = M*V without allocation, V and result must be 
+	 * different vectors over {@link #getItemIndex()}
+	 */
+	public void mul(DenseColumnVector V, DenseColumnVector result);
+
+	/**
+	 * Dense product as {@link #mul(DenseColumnVector, DenseColumnVector)}, split
+	 * across the shared pool when the non-zeros of V reach many edges, single
+	 * threaded in the workers of the pool, which walk users concurrently
+	 */
+	public void parallelMul(DenseColumnVector V, DenseColumnVector result);
+
+	/**
+	 * Block product result = M*V for every column of V at once, so that one
+	 * pass over the matrix serves a whole block of users
+	 */
+	public void mul(DenseColumnBlock V, DenseColumnBlock result);
+
+}
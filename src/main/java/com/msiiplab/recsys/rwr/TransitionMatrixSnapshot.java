@@ -0,0 +1,224 @@
+package com.msiiplab.recsys.rwr;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.model.file.FileDataModel;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+/**
+ * The co-occurrence {@link CSRStochasticMatrix} of a training set, loaded
+ * from a binary snapshot when one exists for the same data and build
+ * options, built and saved otherwise.
+ *
+ * Snapshots are named after a fingerprint of the training file (or of the
+ * preferences, if the model does not come from a file) and laid out as
+ *
+ * 		int magic, int version, int size, int nnz,
+ * 		long itemIDs[size], int rowPtr[size+1], int colIdx[nnz], double weights[nnz]
+ */
+public class TransitionMatrixSnapshot {
+
+	public static final Logger log = LoggerFactory.getLogger(TransitionMatrixSnapshot.class);
+
+	private static final int sMagic = 0x43535231; // "CSR1"
+	private static final int sVersion = 1;
+	private static final int sHeaderSize = 16;
+
+	private final CSRStochasticMatrix mTransitionMatrix;
+	private final FastByIDMap<FastByIDMap<Long>> mCounts;
+	// co-occurrence edges before and after sparsification, -1 when loaded
+	private final long mNumEdges;
+	private final long mNumKeptEdges;
+
+	private TransitionMatrixSnapshot(CSRStochasticMatrix transitionMatrix,
+			FastByIDMap<FastByIDMap<Long>> counts, long numEdges, long numKeptEdges) {
+		mTransitionMatrix = transitionMatrix;
+		mCounts = counts;
+		mNumEdges = numEdges;
+		mNumKeptEdges = numKeptEdges;
+	}
+
+	/**
+	 * @param parameters snapshots are kept in {@link RandomWalkParameters#getSnapshotDir()},
+	 * 		nothing is saved or loaded if it is null
+	 */
+	public static TransitionMatrixSnapshot getInstance(DataModel dataModel,
+			RandomWalkParameters parameters) throws TasteException {
+		File file = null;
+		if (parameters.getSnapshotDir() != null) {
+			file = new File(parameters.getSnapshotDir(),
+					"rwr-" + getFingerprint(dataModel, getBuildOptions(parameters)) + ".csr");
+			if (file.exists()) {
+				try {
+					long start = System.currentTimeMillis();
+					CSRStochasticMatrix transitionMatrix = load(file);
+					log.info("Loaded transition matrix from {} in {} ms", file, System.currentTimeMillis() - start);
+					return new TransitionMatrixSnapshot(transitionMatrix, null, -1, -1);
+				} catch (IOException e) {
+					log.warn("Rebuilding transition matrix, can not load " + file, e);
+				}
+			}
+		}
+		FastByIDMap<FastByIDMap<Long>> counts = new CooccurrenceBuilder(dataModel).build();
+		CooccurrenceSparsifier sparsifier = new CooccurrenceSparsifier(parameters);
+		long numEdges = CooccurrenceSparsifier.getNumEdges(counts);
+		long numKeptEdges = numEdges;
+		if (sparsifier.isActive()) {
+			// pruned counts can not take incremental updates, they are not kept
+			counts = sparsifier.sparsify(counts);
+			numKeptEdges = CooccurrenceSparsifier.getNumEdges(counts);
+		}
+		CSRStochasticMatrix transitionMatrix =
+				CSRStochasticMatrix.getInstance(ItemIndex.getInstance(dataModel), counts);
+		if (file != null) {
+			try {
+				file.getParentFile().mkdirs();
+				save(transitionMatrix, file);
+				log.info("Saved transition matrix to {}", file);
+			} catch (IOException e) {
+				log.warn("Can not save transition matrix to " + file, e);
+			}
+		}
+		return new TransitionMatrixSnapshot(transitionMatrix, sparsifier.isActive() ? null : counts, 
+				numEdges, numKeptEdges);
+	}
+
+	public CSRStochasticMatrix getTransitionMatrix() {
+		return mTransitionMatrix;
+	}
+
+	/**
+	 * @return the co-occurrence counts, or null if the matrix was loaded from a snapshot 
+	 * 		or sparsified
+	 */
+	public FastByIDMap<FastByIDMap<Long>> getCounts() {
+		return mCounts;
+	}
+
+	/**
+	 * @return number of co-occurrence edges before sparsification, -1 if the 
+	 * 		matrix was loaded from a snapshot
+	 */
+	public long getNumEdges() {
+		return mNumEdges;
+	}
+
+	/**
+	 * @return number of co-occurrence edges kept by sparsification, all of 
+	 * 		them when it is off, -1 if the matrix was loaded from a snapshot
+	 */
+	public long getNumKeptEdges() {
+		return mNumKeptEdges;
+	}
+
+	// everything the matrix depends on besides the data
+	private static String getBuildOptions(RandomWalkParameters parameters) {
+		CooccurrenceSparsifier sparsifier = new CooccurrenceSparsifier(parameters);
+		if (sparsifier.isActive()) {
+			return "cooccurrence,v" + sVersion + "," + sparsifier;
+		}
+		return "cooccurrence,v" + sVersion;
+	}
+
+	/**
+	 * @return hex digest of the training file, or of the preferences of the
+	 * 		data model if it is not a {@link FileDataModel}, and the build options
+	 */
+	public static String getFingerprint(DataModel dataModel, String buildOptions) throws TasteException {
+		Hasher hasher = Hashing.md5().newHasher();
+		if (dataModel instanceof FileDataModel) {
+			try {
+				hasher.putBytes(Files.hash(((FileDataModel) dataModel).getDataFile(), Hashing.md5()).asBytes());
+			} catch (IOException e) {
+				throw new TasteException(e);
+			}
+		} else {
+			LongPrimitiveIterator it_user = dataModel.getUserIDs();
+			while (it_user.hasNext()) {
+				long userID = it_user.nextLong();
+				PreferenceArray prefs = dataModel.getPreferencesFromUser(userID);
+				hasher.putLong(userID).putInt(prefs.length());
+				for (int k=0; k<prefs.length(); k++) {
+					hasher.putLong(prefs.getItemID(k));
+				}
+			}
+		}
+		hasher.putString(buildOptions);
+		return hasher.hash().toString();
+	}
+
+	public static void save(CSRStochasticMatrix matrix, File file) throws IOException {
+		int size = matrix.getSize();
+		int nnz = matrix.getNumNonZeros();
+		long length = sHeaderSize + 8L * size + 4L * (size + 1) + 4L * nnz + 8L * nnz;
+		if (length > Integer.MAX_VALUE) {
+			throw new IOException("transition matrix over 2GB");
+		}
+		// write to a temporary file and rename, so a reader never sees half a snapshot
+		File temp = new File(file.getPath() + ".tmp");
+		RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+		try {
+			raf.setLength(length);
+			MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+			buffer.putInt(sMagic).putInt(sVersion).putInt(size).putInt(nnz);
+			buffer.asLongBuffer().put(matrix.getItemIndex().getItemIDs());
+			buffer.position(buffer.position() + 8 * size);
+			buffer.asIntBuffer().put(matrix.getRowPtr());
+			buffer.position(buffer.position() + 4 * (size + 1));
+			buffer.asIntBuffer().put(matrix.getColIdx(), 0, nnz);
+			buffer.position(buffer.position() + 4 * nnz);
+			buffer.asDoubleBuffer().put(matrix.getWeights(), 0, nnz);
+			buffer.force();
+		} finally {
+			raf.close();
+		}
+		if (!temp.renameTo(file)) {
+			temp.delete();
+			throw new IOException("can not rename " + temp + " to " + file);
+		}
+	}
+
+	public static CSRStochasticMatrix load(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (channel.size() < sHeaderSize || buffer.getInt() != sMagic || buffer.getInt() != sVersion) {
+				throw new IOException("not a transition matrix snapshot: " + file);
+			}
+			int size = buffer.getInt();
+			int nnz = buffer.getInt();
+			if (channel.size() != sHeaderSize + 8L * size + 4L * (size + 1) + 12L * nnz) {
+				throw new IOException("truncated transition matrix snapshot: " + file);
+			}
+			long[] itemIDs = new long[size];
+			int[] rowPtr = new int[size+1];
+			int[] colIdx = new int[nnz];
+			double[] weights = new double[nnz];
+			buffer.asLongBuffer().get(itemIDs);
+			buffer.position(buffer.position() + 8 * size);
+			buffer.asIntBuffer().get(rowPtr);
+			buffer.position(buffer.position() + 4 * (size + 1));
+			buffer.asIntBuffer().get(colIdx);
+			buffer.position(buffer.position() + 4 * nnz);
+			buffer.asDoubleBuffer().get(weights);
+			return new CSRStochasticMatrix(new ItemIndex(itemIDs), rowPtr, colIdx, weights);
+		} finally {
+			raf.close();
+		}
+	}
+}
@@ -0,0 +1,24 @@
+package com.msiiplab.recsys.rwr;
+
+/**
+ * Precision of the edge weights of a transition matrix, see 
+ * {@link CompactCSRStochasticMatrix}
+ */
+public enum WeightStorage {
+	/** 8 byte weights, as built */
+	DOUBLE(8),
+	/** 4 byte weights, about 7 significant digits */
+	FLOAT(4),
+	/** 2 byte weights quantized against the largest weight of their row */
+	SHORT(2);
+
+	private final int mBytesPerWeight;
+
+	private WeightStorage(int bytesPerWeight) {
+		mBytesPerWeight = bytesPerWeight;
+	}
+
+	public int getBytesPerWeight() {
+		return mBytesPerWeight;
+	}
+}
@@ -0,0 +1,58 @@
+package com.msiiplab.recsys.lfm;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Arrays;
+
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.junit.Test;
+
+import com.msiiplab.recsys.rwr.ComputePool;
+import com.msiiplab.recsys.rwr.CooccurrenceBuilderTest;
+
+public class AspectModelRecommenderTest {
+
+	private static void assertModelEquals(AspectModelRecommender expected, AspectModelRecommender actual) {
+		assertModelEquals(expected, actual, 0.0);
+	}
+
+	private static void assertModelEquals(AspectModelRecommender expected, AspectModelRecommender actual, double delta) {
+		assertArrayEquals(expected.getLatentPrior(), actual.getLatentPrior(), delta);
+		for (int u=0; u<expected.getUserConditional().length; u++) {
+			assertArrayEquals(expected.getUserConditional()[u], actual.getUserConditional()[u], delta);
+		}
+		for (int i=0; i<expected.getItemConditional().length; i++) {
+			assertArrayEquals(expected.getItemConditional()[i], actual.getItemConditional()[i], delta);
+		}
+	}
+
+	@Test
+	public void testSeed() {
+		DataModel dataModel = CooccurrenceBuilderTest.getRandomDataModel(200, 80, 12, 43L);
+		for (boolean fusedTraining: new boolean[] {false, true}) {
+			AspectModelRecommender model = new AspectModelRecommender(dataModel, 4, fusedTraining, 7L);
+			assertEquals(7L, model.getSeed());
+			assertModelEquals(model, new AspectModelRecommender(dataModel, 4, fusedTraining, 7L));
+			AspectModelRecommender other = new AspectModelRecommender(dataModel, 4, fusedTraining, 8L);
+			assertFalse(Arrays.equals(model.getLatentPrior(), other.getLatentPrior()));
+		}
+	}
+
+	@Test
+	public void testPartitions() {
+		DataModel dataModel = CooccurrenceBuilderTest.getRandomDataModel(200, 80, 12, 47L);
+		int numThreads = ComputePool.getInstance().getNumThreads();
+		try {
+			// one partition holds every item row, five hold sparse rows
+			ComputePool.setNumThreads(1);
+			AspectModelRecommender single = new AspectModelRecommender(dataModel, 4, true, 7L);
+			ComputePool.setNumThreads(5);
+			assertModelEquals(single, new AspectModelRecommender(dataModel, 4, true, 7L), 1e-9);
+		} finally {
+			ComputePool.setNumThreads(numThreads);
+		}
+	}
+
+}
@@ -0,0 +1,31 @@
+package com.msiiplab.recsys.rwr;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.junit.Test;
+
+public class BipartitePageRankModelTest {
+
+	@Test
+	public void test() throws TasteException {
+		DataModel dataModel = CooccurrenceBuilderTest.getRandomDataModel(200, 80, 12, 29L);
+		RandomWalkParameters parameters = new RandomWalkParameters().setBatchSize(8);
+		PersonalizedPageRankModel collapsed = PersonalizedPageRankModel.getInstance(dataModel, parameters);
+		BipartitePageRankModel bipartite = BipartitePageRankModel.getInstance(dataModel, parameters);
+		long[] userIDs = new long[20];
+		for (int i=0; i<userIDs.length; i++) {
+			userIDs[i] = i;
+		}
+		// first half walked one by one, the rest as blocks
+		for (int i=0; i<10; i++) {
+			bipartite.getCachedPreferencesForUser(userIDs[i]);
+		}
+		bipartite.prefetchPreferencesForUsers(userIDs);
+		for (long userID: userIDs) {
+			PersonalizedPageRankModelTest.assertRankEquals(
+					collapsed.getCachedPreferencesForUser(userID),
+					bipartite.getCachedPreferencesForUser(userID), 1e-12);
+		}
+	}
+
+}
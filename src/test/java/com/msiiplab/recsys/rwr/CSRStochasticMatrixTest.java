@@ -0,0 +1,79 @@
+package com.msiiplab.recsys.rwr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.junit.Test;
+
+public class CSRStochasticMatrixTest {
+
+	@Test
+	public void test() throws TasteException {
+		DataModel dataModel = CooccurrenceBuilderTest.getRandomDataModel(200, 80, 12, 7L);
+		PersonalizedPageRankModel model = PersonalizedPageRankModel.getInstance(dataModel);
+
+		Random random = new Random(7L);
+		FastByIDMap<Double> vector = new FastByIDMap<Double>();
+		LongPrimitiveIterator it_item = dataModel.getItemIDs();
+		while (it_item.hasNext()) {
+			long itemID = it_item.nextLong();
+			if (random.nextBoolean()) {
+				vector.put(itemID, random.nextDouble());
+			}
+		}
+
+		FastByIDMap<Double> expected = PersonalizedPageRankModelTest.getReferenceMatrix(dataModel)
+				.mul(new ColumnVector(vector)).toFastByIDMap();
+		FastByIDMap<Double> actual = model.getTransitionMatrix()
+				.mul(new ColumnVector(vector)).toFastByIDMap();
+		assertEquals(expected.size(), actual.size());
+		LongPrimitiveIterator it = expected.keySetIterator();
+		while (it.hasNext()) {
+			long itemID = it.nextLong();
+			assertEquals(expected.get(itemID), actual.get(itemID), 1e-12);
+		}
+	}
+
+	@Test
+	public void testParallelMul() throws TasteException {
+		DataModel dataModel = CooccurrenceBuilderTest.getRandomDataModel(200, 80, 12, 9L);
+		CSRStochasticMatrix matrix = (CSRStochasticMatrix) 
+				PersonalizedPageRankModel.getInstance(dataModel).getTransitionMatrix();
+
+		int[] bounds = CSRStochasticMatrix.partition(matrix.getRowPtr(), 8);
+		int[] rowPtr = matrix.getRowPtr();
+		int maxRowSize = 0;
+		for (int j=0; j<matrix.getSize(); j++) {
+			maxRowSize = Math.max(maxRowSize, matrix.getRowSize(j));
+		}
+		assertEquals(0, bounds[0]);
+		assertEquals(matrix.getSize(), bounds[8]);
+		for (int p=0; p<8; p++) {
+			// a partition misses its share by less than one row
+			int partSize = rowPtr[bounds[p+1]] - rowPtr[bounds[p]];
+			assertTrue(Math.abs(partSize - matrix.getNumNonZeros() / 8) <= maxRowSize + 1);
+		}
+
+		Random random = new Random(9L);
+		double[] x = new double[matrix.getSize()];
+		for (int i=0; i<x.length; i++) {
+			x[i] = random.nextDouble();
+		}
+		DenseColumnVector V = new DenseColumnVector(matrix.getItemIndex());
+		System.arraycopy(x, 0, V.getValues(), 0, x.length);
+		DenseColumnVector expected = new DenseColumnVector(matrix.getItemIndex());
+		matrix.mul(V, expected);
+		double[] actual = new double[x.length];
+		matrix.parallelMul(x, actual);
+		for (int j=0; j<x.length; j++) {
+			assertEquals(expected.get(j), actual[j], 0.0);
+		}
+	}
+
+}
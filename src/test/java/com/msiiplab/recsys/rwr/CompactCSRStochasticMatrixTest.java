@@ -0,0 +1,59 @@
+package com.msiiplab.recsys.rwr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.junit.Test;
+
+public class CompactCSRStochasticMatrixTest {
+
+	@Test
+	public void test() throws TasteException {
+		DataModel dataModel = CooccurrenceBuilderTest.getRandomDataModel(200, 80, 12, 17L);
+		CSRStochasticMatrix matrix = (CSRStochasticMatrix) 
+				PersonalizedPageRankModel.getInstance(dataModel).getTransitionMatrix();
+		DenseColumnVector V = new DenseColumnVector(matrix.getItemIndex());
+		V.fill(1.0 / V.size());
+		DenseColumnVector expected = new DenseColumnVector(matrix.getItemIndex());
+		matrix.mul(V, expected);
+
+		// error of each weight: float rounding, or half a step of its row
+		double[] deltas = new double[] {1e-7, 0.5 / 0xffff};
+		WeightStorage[] storages = new WeightStorage[] {WeightStorage.FLOAT, WeightStorage.SHORT};
+		for (int s=0; s<storages.length; s++) {
+			CompactCSRStochasticMatrix compact = CompactCSRStochasticMatrix.getInstance(matrix, storages[s]);
+			assertTrue(compact.getBytes() < CompactCSRStochasticMatrix.getBytes(
+					matrix.getSize(), matrix.getNumNonZeros(), WeightStorage.DOUBLE));
+			DenseColumnVector actual = new DenseColumnVector(matrix.getItemIndex());
+			compact.mul(V, actual);
+			for (int j=0; j<V.size(); j++) {
+				assertEquals(expected.get(j), actual.get(j), deltas[s]);
+			}
+		}
+	}
+
+	@Test
+	public void testRanking() throws TasteException {
+		DataModel dataModel = CooccurrenceBuilderTest.getRandomDataModel(200, 80, 12, 23L);
+		Recommender exact = new PersonalizedPageRankRecommender(dataModel, 
+				PersonalizedPageRankModel.getInstance(dataModel));
+		Recommender compact = new PersonalizedPageRankRecommender(dataModel, 
+				PersonalizedPageRankModel.getInstance(dataModel, 
+						new RandomWalkParameters().setWeightStorage(WeightStorage.SHORT)));
+		for (long userID=0; userID<20; userID++) {
+			List<RecommendedItem> expected = exact.recommend(userID, 10);
+			List<RecommendedItem> actual = compact.recommend(userID, 10);
+			assertEquals(expected.size(), actual.size());
+			for (int k=0; k<expected.size(); k++) {
+				assertEquals(expected.get(k).getValue(), actual.get(k).getValue(), 1e-4);
+			}
+		}
+	}
+
+}
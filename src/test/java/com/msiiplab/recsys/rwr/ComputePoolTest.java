@@ -0,0 +1,123 @@
+package com.msiiplab.recsys.rwr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Test;
+
+public class ComputePoolTest {
+
+	private static List<Callable<Integer>> getSquares(int numTasks) {
+		List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+		for (int i=0; i<numTasks; i++) {
+			final int value = i;
+			tasks.add(new Callable<Integer>() {
+				@Override
+				public Integer call() {
+					return value * value;
+				}
+			});
+		}
+		return tasks;
+	}
+
+	@Test
+	public void testOrder() throws Exception {
+		// fewer, as many and more tasks than chunks
+		for (int numTasks: new int[] {0, 1, 3, 1000}) {
+			List<Integer> results = ComputePool.getInstance().invokeAll(getSquares(numTasks));
+			assertEquals(numTasks, results.size());
+			for (int i=0; i<numTasks; i++) {
+				assertEquals(i * i, (int) results.get(i));
+			}
+		}
+	}
+
+	@Test
+	public void testFailure() throws Exception {
+		List<Callable<Integer>> tasks = getSquares(100);
+		tasks.set(57, new Callable<Integer>() {
+			@Override
+			public Integer call() {
+				throw new IllegalStateException("task 57");
+			}
+		});
+		try {
+			ComputePool.getInstance().invokeAll(tasks);
+			fail();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+		// the pool still runs the next tasks
+		assertEquals(100, ComputePool.getInstance().invokeAll(getSquares(100)).size());
+	}
+
+	@Test
+	public void testNested() throws Exception {
+		List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+		for (int i=0; i<20; i++) {
+			tasks.add(new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					int sum = 0;
+					for (int square: ComputePool.getInstance().invokeAll(getSquares(10))) {
+						sum += square;
+					}
+					return sum;
+				}
+			});
+		}
+		for (int sum: ComputePool.getInstance().invokeAll(tasks)) {
+			assertEquals(285, sum);
+		}
+	}
+
+	@Test
+	public void testWorkerThread() throws Exception {
+		assertFalse(ComputePool.isWorkerThread());
+		List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
+		for (int i=0; i<100; i++) {
+			tasks.add(new Callable<Boolean>() {
+				@Override
+				public Boolean call() {
+					return ComputePool.isWorkerThread();
+				}
+			});
+		}
+		int numWorkers = 0;
+		for (boolean isWorker: ComputePool.getInstance().invokeAll(tasks)) {
+			numWorkers += isWorker ? 1 : 0;
+		}
+		// chunks may run in the caller when the queue is full
+		assertTrue(numWorkers > 0);
+		assertEquals(ComputePool.getInstance().getNumThreads(), 
+				ComputePool.getInstance().getForkJoinPool().getParallelism());
+		// fork join threads are workers as well
+		assertTrue(ComputePool.getInstance().getForkJoinPool().submit(tasks.get(0)).get());
+	}
+
+	@Test(timeout = 10000)
+	public void testResize() throws Exception {
+		int numThreads = ComputePool.getInstance().getNumThreads();
+		try {
+			ComputePool pool = ComputePool.getInstance();
+			ComputePool.setNumThreads(numThreads + 1);
+			// the old pool is shut down, its chunks run in the new one
+			List<Integer> results = pool.invokeAll(getSquares(1000));
+			for (int i=0; i<1000; i++) {
+				assertEquals(i * i, (int) results.get(i));
+			}
+			assertEquals(numThreads + 1, ComputePool.getInstance().getNumThreads());
+		} finally {
+			ComputePool.setNumThreads(numThreads);
+		}
+	}
+
+}
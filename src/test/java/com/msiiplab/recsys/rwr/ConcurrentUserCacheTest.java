@@ -0,0 +1,143 @@
+package com.msiiplab.recsys.rwr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.junit.Test;
+
+public class ConcurrentUserCacheTest {
+
+	private static FastByIDMap<Double> getPreferences(int size) {
+		FastByIDMap<Double> preferences = new FastByIDMap<Double>();
+		for (long itemID=0; itemID<size; itemID++) {
+			preferences.put(itemID, 1.0);
+		}
+		return preferences;
+	}
+
+	@Test
+	public void testSingleFlight() throws Exception {
+		final ConcurrentUserCache<Integer> cache = new ConcurrentUserCache<Integer>();
+		final AtomicInteger loads = new AtomicInteger();
+		final Callable<Integer> loader = new Callable<Integer>() {
+			@Override
+			public Integer call() throws Exception {
+				Thread.sleep(50);
+				return loads.incrementAndGet();
+			}
+		};
+		ExecutorService pool = Executors.newFixedThreadPool(8);
+		List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+		for (int t=0; t<8; t++) {
+			futures.add(pool.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					return cache.get(7L, loader);
+				}
+			}));
+		}
+		for (Future<Integer> future: futures) {
+			assertEquals(1, (int) future.get());
+		}
+		pool.shutdown();
+		assertEquals(1, loads.get());
+		assertEquals(1, cache.getMissCount());
+		assertEquals(7, cache.getHitCount());
+	}
+
+	@Test
+	public void testFailureNotCached() throws TasteException {
+		ConcurrentUserCache<Integer> cache = new ConcurrentUserCache<Integer>();
+		final AtomicInteger loads = new AtomicInteger();
+		Callable<Integer> loader = new Callable<Integer>() {
+			@Override
+			public Integer call() throws Exception {
+				loads.incrementAndGet();
+				throw new NoSuchUserException(3L);
+			}
+		};
+		for (int t=0; t<2; t++) {
+			try {
+				cache.get(3L, loader);
+				fail();
+			} catch (NoSuchUserException e) {
+				// expected
+			}
+		}
+		assertEquals(2, loads.get());
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testBudgets() throws TasteException {
+		ConcurrentUserCache<FastByIDMap<Double>> cache = new ConcurrentUserCache<FastByIDMap<Double>>(
+				64, 0, null);
+		for (long userID=0; userID<1000; userID++) {
+			cache.putIfAbsent(userID, getPreferences(10));
+		}
+		assertTrue(cache.size() <= 64);
+		assertEquals(1000, cache.size() + cache.getEvictionCount());
+
+		cache = new ConcurrentUserCache<FastByIDMap<Double>>(0, 100000, 
+				new ConcurrentUserCache.PreferenceWeigher());
+		for (long userID=0; userID<1000; userID++) {
+			cache.putIfAbsent(userID, getPreferences(10));
+		}
+		assertTrue(cache.getBytes() <= 100000);
+		assertEquals(1000, cache.size() + cache.getEvictionCount());
+
+		// the budget holds for the whole cache, not per segment
+		cache = new ConcurrentUserCache<FastByIDMap<Double>>(1, 0, null);
+		for (long userID=0; userID<100; userID++) {
+			cache.putIfAbsent(userID, getPreferences(10));
+			assertEquals(1, cache.size());
+		}
+	}
+
+	@Test
+	public void testInFlightNotEvicted() throws Exception {
+		final ConcurrentUserCache<Integer> cache = new ConcurrentUserCache<Integer>(1, 0, null);
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger loads = new AtomicInteger();
+		final Callable<Integer> loader = new Callable<Integer>() {
+			@Override
+			public Integer call() throws Exception {
+				started.countDown();
+				release.await();
+				return loads.incrementAndGet();
+			}
+		};
+		ExecutorService pool = Executors.newSingleThreadExecutor();
+		Future<Integer> future = pool.submit(new Callable<Integer>() {
+			@Override
+			public Integer call() throws Exception {
+				return cache.get(7L, loader);
+			}
+		});
+		started.await();
+		cache.putIfAbsent(8L, 8);
+		assertTrue(cache.containsKey(7L));
+		release.countDown();
+		assertEquals(1, (int) future.get());
+		pool.shutdown();
+		// the waiting future was kept, 7 is not computed again
+		assertEquals(1, (int) cache.get(7L, loader));
+		assertEquals(1, loads.get());
+		assertEquals(1, cache.size());
+	}
+
+}
@@ -0,0 +1,64 @@
+package com.msiiplab.recsys.rwr;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
+import org.apache.mahout.cf.taste.impl.model.GenericPreference;
+import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.Preference;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.junit.Test;
+
+public class CooccurrenceBuilderTest {
+
+	public static DataModel getRandomDataModel(int numUsers, int numItems, int maxPrefs, long seed) {
+		Random random = new Random(seed);
+		FastByIDMap<PreferenceArray> userData = new FastByIDMap<PreferenceArray>();
+		for (long userID=0; userID<numUsers; userID++) {
+			FastByIDMap<Preference> prefs = new FastByIDMap<Preference>();
+			int numPrefs = 1 + random.nextInt(maxPrefs);
+			for (int i=0; i<numPrefs; i++) {
+				long itemID = 100 + random.nextInt(numItems);
+				prefs.put(itemID, new GenericPreference(userID, itemID, 1 + random.nextInt(2)));
+			}
+			List<Preference> list = new ArrayList<Preference>(prefs.values());
+			userData.put(userID, new GenericUserPreferenceArray(list));
+		}
+		return new GenericDataModel(userData);
+	}
+
+	@Test
+	public void test() throws TasteException {
+		DataModel dataModel = getRandomDataModel(200, 80, 12, 42L);
+		FastByIDMap<FastByIDMap<Long>> counts = new CooccurrenceBuilder(dataModel).build();
+
+		long numEntries = 0;
+		LongPrimitiveIterator it_i = dataModel.getItemIDs();
+		while (it_i.hasNext()) {
+			long i = it_i.nextLong();
+			LongPrimitiveIterator it_j = dataModel.getItemIDs();
+			while (it_j.hasNext()) {
+				long j = it_j.nextLong();
+				int userNum = dataModel.getNumUsersWithPreferenceFor(i, j);
+				if (userNum > 0) {
+					assertEquals(userNum, (long) counts.get(i).get(j));
+					numEntries ++;
+				}
+			}
+		}
+		long numCounted = 0;
+		for (FastByIDMap<Long> row: counts.values()) {
+			numCounted += row.size();
+		}
+		assertEquals(numEntries, numCounted);
+	}
+
+}
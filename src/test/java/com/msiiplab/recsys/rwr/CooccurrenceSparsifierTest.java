@@ -0,0 +1,76 @@
+package com.msiiplab.recsys.rwr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Iterator;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.junit.Test;
+
+public class CooccurrenceSparsifierTest {
+
+	@Test
+	public void test() throws TasteException {
+		DataModel dataModel = CooccurrenceBuilderTest.getRandomDataModel(200, 80, 12, 43L);
+		FastByIDMap<FastByIDMap<Long>> counts = new CooccurrenceBuilder(dataModel).build();
+		FastByIDMap<FastByIDMap<Long>> sparse = 
+				new CooccurrenceSparsifier(5, 2, CooccurrenceSparsifier.Ranking.COUNT).sparsify(counts);
+		assertEquals(counts.size(), sparse.size());
+		Iterator<Long> it_i = counts.keySetIterator();
+		while (it_i.hasNext()) {
+			long i = it_i.next();
+			FastByIDMap<Long> column = counts.get(i);
+			FastByIDMap<Long> kept = sparse.get(i);
+			assertTrue(kept.size() <= 6);
+			assertEquals(column.get(i), kept.get(i));
+			// the kept neighbors count at least minCount and as much as any dropped one
+			long minKept = Long.MAX_VALUE;
+			Iterator<Long> it_j = kept.keySetIterator();
+			while (it_j.hasNext()) {
+				long j = it_j.next();
+				if (j != i) {
+					assertEquals(column.get(j), kept.get(j));
+					assertTrue(kept.get(j) >= 2);
+					minKept = Math.min(minKept, kept.get(j));
+				}
+			}
+			it_j = column.keySetIterator();
+			while (it_j.hasNext()) {
+				long j = it_j.next();
+				if (!kept.containsKey(j) && kept.size() == 6) {
+					assertTrue(column.get(j) <= minKept);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testTransitionMatrix() throws TasteException {
+		DataModel dataModel = CooccurrenceBuilderTest.getRandomDataModel(200, 80, 12, 47L);
+		PersonalizedPageRankModel dense = PersonalizedPageRankModel.getInstance(dataModel);
+		PersonalizedPageRankModel sparse = PersonalizedPageRankModel.getInstance(dataModel, 
+				new RandomWalkParameters().setMaxNeighbors(5)
+						.setNeighborRanking(CooccurrenceSparsifier.Ranking.COSINE));
+		assertFalse(sparse.isUpdatable());
+		CSRStochasticMatrix matrix = (CSRStochasticMatrix) sparse.getTransitionMatrix();
+		assertTrue(matrix.getNumNonZeros() <= 6 * matrix.getSize());
+		assertEquals(matrix.getNumNonZeros(), sparse.getNumKeptEdges());
+		assertEquals(dense.getTransitionMatrix().getNumNonZeros(), sparse.getNumEdges());
+		assertEquals(dense.getNumEdges(), dense.getNumKeptEdges());
+		assertTrue(matrix.getNumNonZeros() < dense.getTransitionMatrix().getNumNonZeros());
+		// the kept edges of every item are renormalized
+		CSRStochasticMatrix outEdges = matrix.transpose();
+		for (int i=0; i<outEdges.getSize(); i++) {
+			double sum = 0.0;
+			for (int k=outEdges.getRowPtr()[i]; k<outEdges.getRowPtr()[i+1]; k++) {
+				sum += outEdges.getWeights()[k];
+			}
+			assertEquals(1.0, sum, 1e-12);
+		}
+	}
+
+}
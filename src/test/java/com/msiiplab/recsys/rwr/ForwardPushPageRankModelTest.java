@@ -0,0 +1,30 @@
+package com.msiiplab.recsys.rwr;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.junit.Test;
+
+public class ForwardPushPageRankModelTest {
+
+	@Test
+	public void test() throws TasteException {
+		DataModel dataModel = CooccurrenceBuilderTest.getRandomDataModel(200, 80, 12, 17L);
+		RandomWalkParameters parameters = new RandomWalkParameters()
+				.setTolerance(1e-12).setMaxSteps(1000).setEpsilon(1e-10);
+		PersonalizedPageRankModel exact = PersonalizedPageRankModel.getInstance(dataModel, parameters);
+		ForwardPushPageRankModel push = ForwardPushPageRankModel.getInstance(dataModel, parameters);
+		for (long userID=0; userID<20; userID++) {
+			PersonalizedPageRankModelTest.assertRankEquals(
+					exact.getCachedPreferencesForUser(userID),
+					push.getCachedPreferencesForUser(userID), 1e-6);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testWeightStorage() {
+		DataModel dataModel = CooccurrenceBuilderTest.getRandomDataModel(20, 10, 4, 17L);
+		ForwardPushPageRankModel.getInstance(dataModel, 
+				new RandomWalkParameters().setWeightStorage(WeightStorage.FLOAT));
+	}
+
+}
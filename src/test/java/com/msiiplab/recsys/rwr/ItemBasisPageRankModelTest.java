@@ -0,0 +1,41 @@
+package com.msiiplab.recsys.rwr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.junit.Test;
+
+public class ItemBasisPageRankModelTest {
+
+	@Test
+	public void test() throws TasteException {
+		DataModel dataModel = CooccurrenceBuilderTest.getRandomDataModel(200, 80, 12, 23L);
+		// a basis larger than the item set is not truncated
+		RandomWalkParameters parameters = new RandomWalkParameters()
+				.setTolerance(1e-12).setMaxSteps(1000).setEpsilon(1e-10).setBasisSize(100);
+		PersonalizedPageRankModel exact = PersonalizedPageRankModel.getInstance(dataModel, parameters);
+		ItemBasisPageRankModel basis = ItemBasisPageRankModel.getInstance(dataModel, parameters);
+		for (long userID=0; userID<20; userID++) {
+			PersonalizedPageRankModelTest.assertRankEquals(
+					exact.getCachedPreferencesForUser(userID),
+					basis.getCachedPreferencesForUser(userID), 1e-6);
+		}
+		// the build pushes are not counted as pushes of the users
+		assertEquals(0, basis.getPushes().getCount());
+		// another build leaves the file alone, closing deletes it and the mapping stays valid
+		ItemBasisPageRankModel next = ItemBasisPageRankModel.getInstance(dataModel, parameters);
+		assertTrue(basis.getBasisFile().exists());
+		basis.close();
+		assertFalse(basis.getBasisFile().exists());
+		assertTrue(next.getBasisFile().exists());
+		next.close();
+		basis.invalidate(0L);
+		PersonalizedPageRankModelTest.assertRankEquals(
+				exact.getCachedPreferencesForUser(0L),
+				basis.getCachedPreferencesForUser(0L), 1e-6);
+	}
+
+}
@@ -0,0 +1,31 @@
+package com.msiiplab.recsys.rwr;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.junit.Test;
+
+public class MonteCarloPageRankModelTest {
+
+	@Test
+	public void test() throws TasteException {
+		DataModel dataModel = CooccurrenceBuilderTest.getRandomDataModel(200, 80, 12, 19L);
+		RandomWalkParameters parameters = new RandomWalkParameters()
+				.setTolerance(1e-12).setMaxSteps(1000).setNumWalks(200000);
+		PersonalizedPageRankModel exact = PersonalizedPageRankModel.getInstance(dataModel, parameters);
+		MonteCarloPageRankModel walkers = MonteCarloPageRankModel.getInstance(dataModel, parameters);
+		for (long userID=0; userID<5; userID++) {
+			// standard error of a share of 2e5 walks is below 1.2e-3
+			PersonalizedPageRankModelTest.assertRankEquals(
+					exact.getCachedPreferencesForUser(userID),
+					walkers.getCachedPreferencesForUser(userID), 6e-3);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testWeightStorage() {
+		DataModel dataModel = CooccurrenceBuilderTest.getRandomDataModel(20, 10, 4, 19L);
+		MonteCarloPageRankModel.getInstance(dataModel, 
+				new RandomWalkParameters().setWeightStorage(WeightStorage.SHORT));
+	}
+
+}
@@ -0,0 +1,381 @@
+package com.msiiplab.recsys.rwr;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.common.RunningAverage;
+import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
+import org.apache.mahout.cf.taste.impl.model.GenericPreference;
+import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.Preference;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.junit.Test;
+
+public class PersonalizedPageRankModelTest {
+
+	// the original hash map walk: 6 steps from the uniform rank with alpha = 0.9
+	public static FastByIDMap<Double> getReferenceRank(PersonalizedPageRankModel model,
+			long userID) throws TasteException {
+		DataModel dataModel = model.getDataModel();
+		FastByIDMap<Double> uniform = new FastByIDMap<Double>();
+		LongPrimitiveIterator it_item = dataModel.getItemIDs();
+		while (it_item.hasNext()) {
+			uniform.put(it_item.nextLong(), 1.0 / dataModel.getNumItems());
+		}
+		FastByIDMap<Double> personalized = new FastByIDMap<Double>();
+		double prefSum = 0.0;
+		for (Preference pref: dataModel.getPreferencesFromUser(userID)) {
+			personalized.put(pref.getItemID(), (double) pref.getValue());
+			prefSum += pref.getValue();
+		}
+		ColumnVector P = new ColumnVector(personalized).dotMul(1.0 / prefSum);
+		ColumnVector PR = new ColumnVector(uniform);
+		PersonalizedPageRankModel.StochasticMatrix matrix = getReferenceMatrix(dataModel);
+		for (int i=0; i<6; i++) {
+			PR = matrix.mul(PR)
+					.dotMul(0.9 / 0.1)
+					.dotAdd(P)
+					.dotMul(0.1);
+		}
+		return PR.toFastByIDMap();
+	}
+
+	public static PersonalizedPageRankModel.StochasticMatrix getReferenceMatrix(DataModel dataModel) 
+			throws TasteException {
+		return new PersonalizedPageRankModel.StochasticMatrix(new CooccurrenceBuilder(dataModel).build());
+	}
+
+	public static void assertRankEquals(FastByIDMap<Double> expected, FastByIDMap<Double> actual, double delta) {
+		LongPrimitiveIterator it = expected.keySetIterator();
+		while (it.hasNext()) {
+			long itemID = it.nextLong();
+			double value = actual.containsKey(itemID) ? actual.get(itemID) : 0.0;
+			assertEquals(expected.get(itemID), value, delta);
+		}
+		it = actual.keySetIterator();
+		while (it.hasNext()) {
+			long itemID = it.nextLong();
+			double value = expected.containsKey(itemID) ? expected.get(itemID) : 0.0;
+			assertEquals(value, actual.get(itemID), delta);
+		}
+	}
+
+	@Test
+	public void test() throws TasteException {
+		DataModel dataModel = CooccurrenceBuilderTest.getRandomDataModel(200, 80, 12, 11L);
+		PersonalizedPageRankModel model = PersonalizedPageRankModel.getInstance(dataModel);
+		for (long userID=0; userID<20; userID++) {
+			assertRankEquals(getReferenceRank(model, userID),
+					model.getCachedPreferencesForUser(userID), 1e-12);
+		}
+	}
+
+	@Test
+	public void testConvergence() throws TasteException {
+		DataModel dataModel = CooccurrenceBuilderTest.getRandomDataModel(200, 80, 12, 13L);
+		RandomWalkParameters parameters = new RandomWalkParameters()
+				.setAlpha(0.8).setTolerance(1e-10).setMaxSteps(1000);
+		PersonalizedPageRankModel model = PersonalizedPageRankModel.getInstance(dataModel, parameters);
+		PersonalizedPageRankModel.StochasticMatrix matrix = getReferenceMatrix(dataModel);
+		for (long userID=0; userID<20; userID++) {
+			FastByIDMap<Double> rank = model.getCachedPreferencesForUser(userID);
+			// fixed point: PR = a*M*PR + (1-a)*P
+			FastByIDMap<Double> personalized = new FastByIDMap<Double>();
+			double prefSum = 0.0;
+			for (Preference pref: dataModel.getPreferencesFromUser(userID)) {
+				personalized.put(pref.getItemID(), (double) pref.getValue());
+				prefSum += pref.getValue();
+			}
+			FastByIDMap<Double> next = matrix
+					.mul(new ColumnVector(rank.clone()))
+					.dotMul(0.8 / 0.2)
+					.dotAdd(new ColumnVector(personalized).dotMul(1.0 / prefSum))
+					.dotMul(0.2)
+					.toFastByIDMap();
+			assertRankEquals(next, rank, 1e-9);
+		}
+		assertEquals(20, model.getWalkingSteps().getCount());
+		assertTrue(model.getWalkingSteps().getAverage() < 1000);
+	}
+
+	@Test
+	public void testBatch() throws TasteException {
+		DataModel dataModel = CooccurrenceBuilderTest.getRandomDataModel(200, 80, 12, 19L);
+		PersonalizedPageRankModel model = PersonalizedPageRankModel.getInstance(dataModel, 
+				new RandomWalkParameters().setBatchSize(8));
+		long[] userIDs = new long[20];
+		for (int i=0; i<userIDs.length; i++) {
+			userIDs[i] = i;
+		}
+		model.prefetchPreferencesForUsers(userIDs);
+		assertEquals(20, model.getWalkingSteps().getCount());
+		for (long userID: userIDs) {
+			assertRankEquals(getReferenceRank(model, userID),
+					model.getCachedPreferencesForUser(userID), 1e-12);
+		}
+
+		// blocks are cached as they are done, the last ones stay in a small cache
+		PersonalizedPageRankModel bounded = PersonalizedPageRankModel.getInstance(dataModel, 
+				new RandomWalkParameters().setBatchSize(8).setCacheSize(8));
+		bounded.prefetchPreferencesForUsers(userIDs);
+		assertEquals(8, bounded.getUserPreferenceCache().size());
+		assertTrue(bounded.getUserPreferenceCache().containsKey(19));
+	}
+
+	@Test
+	public void testAlphaModels() throws TasteException {
+		DataModel dataModel = CooccurrenceBuilderTest.getRandomDataModel(200, 80, 12, 23L);
+		double[] alphas = {0.5, 0.8, 0.9};
+		RandomWalkParameters parameters = new RandomWalkParameters().setBatchSize(8);
+		PersonalizedPageRankModel model = PersonalizedPageRankModel.getInstance(dataModel, parameters);
+		List<RecommenderModel> alphaModels = model.getAlphaModels(alphas);
+		long[] userIDs = new long[20];
+		for (int i=0; i<userIDs.length; i++) {
+			userIDs[i] = i;
+		}
+		// the first model scores the users for all alphas, the others only read their caches
+		alphaModels.get(0).prefetchPreferencesForUsers(userIDs);
+		assertEquals(20, model.getWalkingSteps().getCount());
+		for (int a=0; a<alphas.length; a++) {
+			PersonalizedPageRankModel expected = PersonalizedPageRankModel.getInstance(dataModel,
+					new RandomWalkParameters().setAlpha(alphas[a]));
+			for (long userID: userIDs) {
+				assertRankEquals(expected.getCachedPreferencesForUser(userID),
+						alphaModels.get(a).getCachedPreferencesForUser(userID), 1e-12);
+			}
+		}
+		assertEquals(20, model.getWalkingSteps().getCount());
+		// a miss of one model scores the user for all of them
+		alphaModels.get(2).getCachedPreferencesForUser(30);
+		alphaModels.get(1).getCachedPreferencesForUser(30);
+		assertEquals(21, model.getWalkingSteps().getCount());
+	}
+
+	@Test
+	public void testTopK() throws TasteException {
+		DataModel dataModel = CooccurrenceBuilderTest.getRandomDataModel(200, 80, 12, 31L);
+		Recommender full = new PersonalizedPageRankRecommender(dataModel, 
+				PersonalizedPageRankModel.getInstance(dataModel));
+		Recommender topK = new PersonalizedPageRankRecommender(dataModel, 
+				PersonalizedPageRankModel.getInstance(dataModel, new RandomWalkParameters().setTopK(5)));
+		for (long userID=0; userID<20; userID++) {
+			// 5 is served from the top K, 10 falls back to the full scores
+			for (int howMany: new int[] {5, 10}) {
+				List<RecommendedItem> expected = full.recommend(userID, howMany);
+				List<RecommendedItem> actual = topK.recommend(userID, howMany);
+				assertEquals(expected.size(), actual.size());
+				for (int k=0; k<expected.size(); k++) {
+					assertEquals(expected.get(k).getItemID(), actual.get(k).getItemID());
+					assertEquals(expected.get(k).getValue(), actual.get(k).getValue(), 1e-6);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testTopKCandidates() throws TasteException {
+		// sparse, so most items are not among the candidates of a user
+		DataModel dataModel = CooccurrenceBuilderTest.getRandomDataModel(300, 400, 6, 32L);
+		Recommender full = new PersonalizedPageRankRecommender(dataModel, 
+				PersonalizedPageRankModel.getInstance(dataModel));
+		PersonalizedPageRankModel model = 
+				PersonalizedPageRankModel.getInstance(dataModel, new RandomWalkParameters().setTopK(5));
+		Recommender topK = new PersonalizedPageRankRecommender(dataModel, model);
+		int numOutside = 0;
+		for (long userID=0; userID<50; userID++) {
+			List<RecommendedItem> expected = full.recommend(userID, 5);
+			List<RecommendedItem> actual = topK.recommend(userID, 5);
+			assertEquals(expected.size(), actual.size());
+			for (int k=0; k<expected.size(); k++) {
+				assertEquals(expected.get(k).getItemID(), actual.get(k).getItemID());
+				assertEquals(expected.get(k).getValue(), actual.get(k).getValue(), 1e-6);
+			}
+			// the best scores over all items other than the user's differ
+			TopKPreferences best = TopKPreferences.getInstance(model.getCachedPreferencesForUser(userID), 
+					5, dataModel.getItemIDsFromUser(userID));
+			for (int k=0; k<best.size(); k++) {
+				if (k >= expected.size() || best.getItemID(k) != expected.get(k).getItemID()) {
+					numOutside ++;
+					break;
+				}
+			}
+		}
+		assertTrue(numOutside > 0);
+
+		// items outside the top K are looked up in the same full scores
+		assertSame(model.getCachedPreferencesForUser(3), model.getCachedPreferencesForUser(3));
+	}
+
+	@Test
+	public void testUpdate() throws TasteException {
+		// sparse enough for the changed items to be patched
+		DataModel dataModel = CooccurrenceBuilderTest.getRandomDataModel(500, 400, 6, 37L);
+		long removedItemID = dataModel.getPreferencesFromUser(5).getItemID(0);
+		long addedItemID = dataModel.getItemIDs().nextLong();
+		while (dataModel.getPreferenceValue(7, addedItemID) != null) {
+			addedItemID ++;
+		}
+
+		// the same preferences with the updates applied
+		FastByIDMap<PreferenceArray> userData = new FastByIDMap<PreferenceArray>();
+		LongPrimitiveIterator it_user = dataModel.getUserIDs();
+		while (it_user.hasNext()) {
+			long userID = it_user.nextLong();
+			List<Preference> prefs = new ArrayList<Preference>();
+			for (Preference pref: dataModel.getPreferencesFromUser(userID)) {
+				if (userID != 5 || pref.getItemID() != removedItemID) {
+					prefs.add(pref);
+				}
+			}
+			if (userID == 3) {
+				prefs.add(new GenericPreference(3, 999, 2));
+			} else if (userID == 7) {
+				prefs.add(new GenericPreference(7, addedItemID, 1));
+			}
+			userData.put(userID, new GenericUserPreferenceArray(prefs));
+		}
+		PersonalizedPageRankModel expected = 
+				PersonalizedPageRankModel.getInstance(new GenericDataModel(userData));
+
+		PersonalizedPageRankModel model = PersonalizedPageRankModel.getInstance(dataModel);
+		for (long userID: new long[] {3, 5, 7}) {
+			model.getCachedPreferencesForUser(userID);
+		}
+		model.setPreference(3, 999, 2);
+		model.setPreference(7, addedItemID, 1);
+		model.removePreference(5, removedItemID);
+		model.refresh();
+		// the changed items are patched over the matrix
+		assertTrue(model.getTransitionMatrix() instanceof PatchedTransitionMatrix);
+		assertEquals(expected.getTransitionMatrix().getSize(), model.getTransitionMatrix().getSize());
+		// the cached users are dropped, the others were never cached
+		for (long userID=0; userID<20; userID++) {
+			assertRankEquals(expected.getCachedPreferencesForUser(userID),
+					model.getCachedPreferencesForUser(userID), 1e-12);
+		}
+		// block products walk over the patches as well
+		PersonalizedPageRankModel batched = PersonalizedPageRankModel.getInstance(dataModel,
+				new RandomWalkParameters().setBatchSize(8));
+		batched.setPreference(3, 999, 2);
+		batched.setPreference(7, addedItemID, 1);
+		batched.removePreference(5, removedItemID);
+		batched.refresh();
+		long[] userIDs = new long[20];
+		for (int i=0; i<userIDs.length; i++) {
+			userIDs[i] = i;
+		}
+		batched.prefetchPreferencesForUsers(userIDs);
+		for (long userID: userIDs) {
+			assertRankEquals(expected.getCachedPreferencesForUser(userID),
+					batched.getCachedPreferencesForUser(userID), 1e-12);
+		}
+	}
+
+	@Test
+	public void testRebuild() throws TasteException {
+		DataModel dataModel = CooccurrenceBuilderTest.getRandomDataModel(200, 80, 12, 39L);
+		// user 3 takes every item, which changes every column of the matrix
+		FastByIDMap<PreferenceArray> userData = new FastByIDMap<PreferenceArray>();
+		LongPrimitiveIterator it_user = dataModel.getUserIDs();
+		while (it_user.hasNext()) {
+			long userID = it_user.nextLong();
+			userData.put(userID, dataModel.getPreferencesFromUser(userID));
+		}
+		List<Preference> prefs = new ArrayList<Preference>();
+		LongPrimitiveIterator it_item = dataModel.getItemIDs();
+		while (it_item.hasNext()) {
+			long itemID = it_item.nextLong();
+			Float value = dataModel.getPreferenceValue(3, itemID);
+			prefs.add(new GenericPreference(3, itemID, value == null ? 1 : value));
+		}
+		userData.put(3L, new GenericUserPreferenceArray(prefs));
+		PersonalizedPageRankModel expected = 
+				PersonalizedPageRankModel.getInstance(new GenericDataModel(userData));
+
+		PersonalizedPageRankModel model = PersonalizedPageRankModel.getInstance(dataModel);
+		for (Preference pref: prefs) {
+			if (dataModel.getPreferenceValue(3, pref.getItemID()) == null) {
+				model.setPreference(3, pref.getItemID(), 1);
+			}
+		}
+		model.refresh();
+		// too many patches, merged into a rebuilt matrix
+		CSRStochasticMatrix actual = (CSRStochasticMatrix) model.getTransitionMatrix();
+		CSRStochasticMatrix built = (CSRStochasticMatrix) expected.getTransitionMatrix();
+		assertArrayEquals(built.getRowPtr(), actual.getRowPtr());
+		assertArrayEquals(built.getColIdx(), actual.getColIdx());
+		assertArrayEquals(built.getWeights(), actual.getWeights(), 1e-15);
+		for (long userID=0; userID<20; userID++) {
+			assertRankEquals(expected.getCachedPreferencesForUser(userID),
+					model.getCachedPreferencesForUser(userID), 1e-12);
+		}
+	}
+
+	@Test
+	public void testWarmStart() throws TasteException {
+		DataModel dataModel = CooccurrenceBuilderTest.getRandomDataModel(200, 80, 12, 41L);
+		RandomWalkParameters parameters = new RandomWalkParameters()
+				.setAlpha(0.8).setTolerance(1e-10).setMaxSteps(1000);
+		long addedItemID = dataModel.getItemIDs().nextLong();
+		while (dataModel.getPreferenceValue(3, addedItemID) != null) {
+			addedItemID ++;
+		}
+		FastByIDMap<PreferenceArray> userData = new FastByIDMap<PreferenceArray>();
+		LongPrimitiveIterator it_user = dataModel.getUserIDs();
+		while (it_user.hasNext()) {
+			long userID = it_user.nextLong();
+			List<Preference> prefs = new ArrayList<Preference>();
+			for (Preference pref: dataModel.getPreferencesFromUser(userID)) {
+				prefs.add(pref);
+			}
+			if (userID == 3) {
+				prefs.add(new GenericPreference(3, addedItemID, 1));
+			}
+			userData.put(userID, new GenericUserPreferenceArray(prefs));
+		}
+		PersonalizedPageRankModel expected = 
+				PersonalizedPageRankModel.getInstance(new GenericDataModel(userData), parameters);
+		FastByIDMap<Double> expectedRank = expected.getCachedPreferencesForUser(3);
+
+		PersonalizedPageRankModel model = PersonalizedPageRankModel.getInstance(dataModel, parameters);
+		model.getCachedPreferencesForUser(3);
+		double coldSteps = model.getWalkingSteps().getAverage();
+		model.setPreference(3, addedItemID, 1);
+		model.refresh();
+		assertRankEquals(expectedRank, model.getCachedPreferencesForUser(3), 1e-9);
+		// the second walk started from the first one
+		RunningAverage steps = model.getWalkingSteps();
+		double warmSteps = steps.getAverage() * steps.getCount() - coldSteps;
+		assertTrue(warmSteps < coldSteps);
+		assertEquals(0, model.getNumWarmStarts());
+
+		// walked in a block, also in top K mode where the full scores are cached for a few users
+		for (int topK: new int[] {0, 10}) {
+			RandomWalkParameters blockParameters = new RandomWalkParameters()
+					.setAlpha(0.8).setTolerance(1e-10).setMaxSteps(1000).setBatchSize(4).setTopK(topK);
+			model = PersonalizedPageRankModel.getInstance(dataModel, blockParameters);
+			model.getCachedPreferencesForUser(3);
+			coldSteps = model.getWalkingSteps().getAverage();
+			model.setPreference(3, addedItemID, 1);
+			model.refresh();
+			assertEquals(1, model.getNumWarmStarts());
+			model.prefetchPreferencesForUsers(new long[] {3});
+			assertEquals(0, model.getNumWarmStarts());
+			steps = model.getWalkingSteps();
+			assertTrue(steps.getAverage() * steps.getCount() - coldSteps < coldSteps);
+			assertRankEquals(expectedRank, model.getCachedPreferencesForUser(3), 1e-9);
+		}
+	}
+
+}
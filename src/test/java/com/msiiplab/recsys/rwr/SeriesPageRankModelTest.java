@@ -0,0 +1,94 @@
+package com.msiiplab.recsys.rwr;
+
+import static org.junit.Assert.assertEquals;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.junit.Test;
+
+public class SeriesPageRankModelTest {
+
+	@Test
+	public void test() throws TasteException {
+		DataModel dataModel = CooccurrenceBuilderTest.getRandomDataModel(200, 80, 12, 53L);
+		// every call its own series walks exactly like the call graph
+		SeriesPageRankModel model = new SeriesPageRankModel(dataModel, new RandomWalkParameters(),
+				new FastByIDMap<Long>(), new FastByIDMap<Long>(), SeriesPageRankModel.Share.POPULARITY);
+		PersonalizedPageRankModel reference = PersonalizedPageRankModel.getInstance(dataModel);
+		for (long userID=0; userID<20; userID++) {
+			PersonalizedPageRankModelTest.assertRankEquals(reference.getCachedPreferencesForUser(userID),
+					model.getCachedPreferencesForUser(userID), 1e-12);
+		}
+	}
+
+	@Test
+	public void testBatch() throws TasteException {
+		DataModel dataModel = CooccurrenceBuilderTest.getRandomDataModel(200, 80, 12, 61L);
+		FastByIDMap<Long> seriesMap = new FastByIDMap<Long>();
+		LongPrimitiveIterator it_item = dataModel.getItemIDs();
+		while (it_item.hasNext()) {
+			long itemID = it_item.nextLong();
+			seriesMap.put(itemID, itemID % 10);
+		}
+		SeriesPageRankModel single = new SeriesPageRankModel(dataModel, new RandomWalkParameters(),
+				seriesMap, new FastByIDMap<Long>(), SeriesPageRankModel.Share.POPULARITY);
+		SeriesPageRankModel batch = new SeriesPageRankModel(dataModel, new RandomWalkParameters().setBatchSize(4),
+				seriesMap, new FastByIDMap<Long>(), SeriesPageRankModel.Share.POPULARITY);
+		assertEquals(4, batch.getBatchSize());
+		long[] userIDs = new long[10];
+		for (int u=0; u<userIDs.length; u++) {
+			userIDs[u] = u;
+		}
+		// three blocks through the series walk, then served from the cache
+		batch.prefetchPreferencesForUsers(userIDs);
+		assertEquals(userIDs.length, batch.getSeriesModel().getWalkingSteps().getCount());
+		for (long userID: userIDs) {
+			PersonalizedPageRankModelTest.assertRankEquals(single.getCachedPreferencesForUser(userID),
+					batch.getCachedPreferencesForUser(userID), 1e-12);
+		}
+		assertEquals(userIDs.length, batch.getSeriesModel().getWalkingSteps().getCount());
+	}
+
+	@Test
+	public void testShares() throws TasteException {
+		DataModel dataModel = CooccurrenceBuilderTest.getRandomDataModel(200, 80, 12, 59L);
+		FastByIDMap<Long> seriesMap = new FastByIDMap<Long>();
+		FastByIDMap<Long> timeMap = new FastByIDMap<Long>();
+		LongPrimitiveIterator it_item = dataModel.getItemIDs();
+		while (it_item.hasNext()) {
+			long itemID = it_item.nextLong();
+			seriesMap.put(itemID, itemID % 10);
+			// one edition a year
+			timeMap.put(itemID, itemID / 10 * 365L * 24 * 3600);
+		}
+		for (SeriesPageRankModel.Share share: SeriesPageRankModel.Share.values()) {
+			SeriesPageRankModel model = new SeriesPageRankModel(dataModel, new RandomWalkParameters(),
+					seriesMap, timeMap, share);
+			assertEquals(10, model.getSeriesModel().getTransitionMatrix().getSize());
+			for (long userID=0; userID<20; userID++) {
+				FastByIDMap<Double> seriesRank = model.getSeriesModel().getCachedPreferencesForUser(userID);
+				FastByIDMap<Double> rank = model.getCachedPreferencesForUser(userID);
+				// the calls of a series share its rank
+				double[] sums = new double[10];
+				it_item = dataModel.getItemIDs();
+				while (it_item.hasNext()) {
+					long itemID = it_item.nextLong();
+					sums[(int) (itemID % 10)] += rank.get(itemID);
+					if (share == SeriesPageRankModel.Share.POPULARITY && rank.containsKey(itemID + 10)) {
+						assertEquals((double) (dataModel.getNumUsersWithPreferenceFor(itemID) + 1) 
+								/ (dataModel.getNumUsersWithPreferenceFor(itemID + 10) + 1),
+								rank.get(itemID) / rank.get(itemID + 10), 1e-9);
+					} else if (share == SeriesPageRankModel.Share.DEADLINE && rank.containsKey(itemID + 10)) {
+						assertEquals(0.5, rank.get(itemID) / rank.get(itemID + 10), 1e-9);
+					}
+				}
+				for (long seriesID=0; seriesID<10; seriesID++) {
+					assertEquals(seriesRank.get(seriesID), sums[(int) seriesID], 1e-12);
+				}
+			}
+		}
+	}
+
+}
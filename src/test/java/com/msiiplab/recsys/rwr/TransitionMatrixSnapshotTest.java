@@ -0,0 +1,52 @@
+package com.msiiplab.recsys.rwr;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TransitionMatrixSnapshotTest {
+
+	@Rule
+	public TemporaryFolder mFolder = new TemporaryFolder();
+
+	@Test
+	public void test() throws TasteException, IOException {
+		DataModel dataModel = CooccurrenceBuilderTest.getRandomDataModel(200, 80, 12, 37L);
+		File dir = mFolder.newFolder("snapshots");
+		RandomWalkParameters parameters = new RandomWalkParameters().setSnapshotDir(dir.getPath());
+
+		PersonalizedPageRankModel built = PersonalizedPageRankModel.getInstance(dataModel, parameters);
+		assertTrue(built.isUpdatable());
+		assertEquals(1, dir.listFiles().length);
+
+		PersonalizedPageRankModel loaded = PersonalizedPageRankModel.getInstance(dataModel, parameters);
+		assertFalse(loaded.isUpdatable());
+		CSRStochasticMatrix expected = (CSRStochasticMatrix) built.getTransitionMatrix();
+		CSRStochasticMatrix actual = (CSRStochasticMatrix) loaded.getTransitionMatrix();
+		assertArrayEquals(expected.getItemIndex().getItemIDs(), actual.getItemIndex().getItemIDs());
+		assertArrayEquals(expected.getRowPtr(), actual.getRowPtr());
+		assertArrayEquals(expected.getColIdx(), actual.getColIdx());
+		assertArrayEquals(expected.getWeights(), actual.getWeights(), 0.0);
+		for (long userID=0; userID<20; userID++) {
+			PersonalizedPageRankModelTest.assertRankEquals(
+					built.getCachedPreferencesForUser(userID),
+					loaded.getCachedPreferencesForUser(userID), 0.0);
+		}
+
+		// other data, other snapshot
+		DataModel other = CooccurrenceBuilderTest.getRandomDataModel(200, 80, 12, 41L);
+		assertTrue(PersonalizedPageRankModel.getInstance(other, parameters).isUpdatable());
+		assertEquals(2, dir.listFiles().length);
+	}
+
+}